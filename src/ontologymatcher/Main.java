@@ -7,6 +7,7 @@ import java.io.IOException;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.tika.exception.TikaException;
 import org.xml.sax.SAXException;
+import ontologymatcher.config.MatcherConfig;
 import ontologymatcher.exceptions.InvalidArgumentException;
 import ontologymatcher.utils.Utils;
 
@@ -26,7 +27,7 @@ public class Main {
        
         
         try{
-             if (args.length != 2) {
+             if (args.length < 2) {
                 throw new InvalidArgumentException();
             }
              else{
@@ -35,8 +36,9 @@ public class Main {
                 
                 inputDirectory=GetInputPath(args[0]);
                 outputPath=GetOutputPath(args[1]);
+                MatcherConfig config=MatcherConfig.parse(args,2);
                 
-                OntologyMatcher matcher = new OntologyMatcher(inputDirectory,outputPath);
+                OntologyMatcher matcher = new OntologyMatcher(inputDirectory,outputPath,config);
                 matcher.start();
                 
              }
@@ -45,8 +47,46 @@ public class Main {
             System.out.println(String.format("Error: %s", ex.getMessage()));
         }
         catch (InvalidArgumentException invalidArgEx) {
+            if(invalidArgEx.getMessage() != null){
+                System.out.println(String.format("Error: %s", invalidArgEx.getMessage()));
+            }
             System.out.println("Application usage:");
-            System.out.println("<executable_name>  <input_directory>  <output_path>");
+            System.out.println("<executable_name>  <input_directory>  <output_path>  [options]");
+            System.out.println("Options:");
+            System.out.println("  --workers <n>    number of threads extracting file contents (default 1)");
+            System.out.println("  --index <dir>    keep the Lucene index on disk and reuse it on later runs");
+            System.out.println("                   (only new, changed and deleted files are re-indexed; re-indexed");
+            System.out.println("                   files come after the others, so hits and the numbering of new");
+            System.out.println("                   individuals can be in another order than with a fresh index)");
+            System.out.println("  --hash <on|off>  also compare content hashes when looking for changed files");
+            System.out.println("  --keywords <on|off>  generate the keywords used for content matching (default on)");
+            System.out.println("  --matcher <query|dictionary>  run queries per concept, or stream every file once");
+            System.out.println("                   through a dictionary of all concepts (default query)");
+            System.out.println("  --match-threads <n>  number of threads running the concept queries (default 1)");
+            System.out.println("  --content-tokens <n>  maximum number of tokens indexed per file (default 1000000)");
+            System.out.println("  --parse-timeout <s>  seconds after which the extraction of a file is cut short (default 60)");
+            System.out.println("  --max-file-size <mb>  only the metadata of larger files is read, and no parse reads more (default 100)");
+            System.out.println("  --cache <dir>    reuse the text and metadata extracted from unchanged files");
+            System.out.println("  --cache-size <mb>  maximum size of the extracted text in the cache (default 1024)");
+            System.out.println("  --dedup <on|off>  parse and index the contents of identical files once (default on)");
+            System.out.println("  --include <glob>  only index matching files, e.g. *.pdf or docs/**; repeatable");
+            System.out.println("  --exclude <glob>  leave out matching files and directories; repeatable");
+            System.out.println("  --skip <kinds>   kinds of file indexed by name only, without parsing, or none");
+            System.out.println("                   (default video,archive,executable,disk-image,binary; also");
+            System.out.println("                   document, text, image, audio)");
+            System.out.println("  --format <rdfxml|turtle>  format the ontology is written in; turtle is written");
+            System.out.println("                   to a .ttl file next to it unless it already is one (default rdfxml)");
+            System.out.println("  --delta <on|off>  only write the new statements, appending them as N-Triples to");
+            System.out.println("                   a .delta.nt file and leaving the ontology untouched; the file is");
+            System.out.println("                   read back on later runs until merged and deleted (default off)");
+            System.out.println("  --store <dir>    keep the ontology in a store on disk rather than in memory;");
+            System.out.println("                   the ontology is imported on the first run and the store is");
+            System.out.println("                   updated in place afterwards (delete it to import again)");
+            System.out.println("  --snapshot <file>  save the tables read from the ontology, and load them from");
+            System.out.println("                   there instead of parsing it while the ontology is unchanged");
+            System.out.println("  --schema <full|match-only|metadata-only>  what the index keeps of every file:");
+            System.out.println("                   match-only drops the term vectors the dictionary matcher needs,");
+            System.out.println("                   metadata-only also skips the text of documents (default full)");
             
         }
     }
@@ -1,8 +1,12 @@
 
 package ontologymatcher;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.concurrent.Future;
+import ontologymatcher.config.MatcherConfig;
+import ontologymatcher.lucene.DirectoryIndexer;
 import ontologymatcher.ontology.Ontology;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -15,20 +19,32 @@ public class OntologyMatcher {
     
     private final String input;
     private final String output;
+    private final MatcherConfig config;
     
     public OntologyMatcher(String input,String output){
+        this(input,output,new MatcherConfig());
+    }
+    
+    public OntologyMatcher(String input,String output,MatcherConfig config){
         
         this.input = input;
         this.output = output;
+        this.config = config;
     }
     
     public void start() throws IOException, SAXException, FileNotFoundException, TikaException, ParseException{
         
         Logger.getRootLogger().setLevel(Level.OFF);
-        Ontology ontology = new Ontology(input,output);
-        ontology.readTriples();
-        ontology.compareConceptsAndFiles();
-        ontology.createFileIntances();
+        Future<DirectoryIndexer> indexing = DirectoryIndexer.start(new File(input),config);
+        Ontology ontology = new Ontology(input,output,config,indexing);
+        try{
+            ontology.readTriples();
+            ontology.compareConceptsAndFiles();
+            ontology.createFileIntances();
+        }
+        finally{
+            ontology.close();
+        }
         
     }
     
@@ -0,0 +1,437 @@
+
+package ontologymatcher.config;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import ontologymatcher.file.FileKind;
+import ontologymatcher.exceptions.InvalidArgumentException;
+import ontologymatcher.lucene.IndexSchema;
+
+
+public class MatcherConfig {
+    
+    public static final String QUERY_MATCHER = "query";
+    public static final String DICTIONARY_MATCHER = "dictionary";
+    public static final String RDFXML_FORMAT = "rdfxml";
+    public static final String TURTLE_FORMAT = "turtle";
+    
+    private int extractionWorkers;
+    private String indexDirectory;
+    private boolean contentHashing;
+    private boolean keywords;
+    private String matcher;
+    private int matchingThreads;
+    private int contentTokens;
+    private int parseTimeout;
+    private int maxFileSize;
+    private String cacheDirectory;
+    private int cacheSize;
+    private boolean deduplication;
+    private List<String> includes;
+    private List<String> excludes;
+    private Set<FileKind> skippedKinds;
+    private String format;
+    private boolean delta;
+    private String storeDirectory;
+    private String snapshotFile;
+    private IndexSchema schema;
+    
+    public MatcherConfig(){
+        extractionWorkers = 1;
+        indexDirectory = null;
+        contentHashing = false;
+        keywords = true;
+        matcher = QUERY_MATCHER;
+        matchingThreads = 1;
+        contentTokens = 1000000;
+        parseTimeout = 60;
+        maxFileSize = 100;
+        cacheDirectory = null;
+        cacheSize = 1024;
+        deduplication = true;
+        includes = new ArrayList<>();
+        excludes = new ArrayList<>();
+        skippedKinds = EnumSet.of(FileKind.VIDEO,FileKind.ARCHIVE,FileKind.EXECUTABLE,FileKind.DISK_IMAGE,FileKind.BINARY);
+        format = RDFXML_FORMAT;
+        delta = false;
+        storeDirectory = null;
+        snapshotFile = null;
+        schema = IndexSchema.FULL;
+    }
+    
+    /**
+     * Reads the optional "--name value" arguments that follow the input 
+     * directory and the ontology file on the command line.
+     */
+    public static MatcherConfig parse(String[] args, int offset) throws InvalidArgumentException{
+        MatcherConfig config = new MatcherConfig();
+        int i = offset;
+        while(i < args.length){
+            String option = args[i];
+            if(i+1 >= args.length){
+                throw new InvalidArgumentException("Missing value for option "+option);
+            }
+            String value = args[i+1];
+            switch(option){
+                case "--workers":
+                    config.setExtractionWorkers(parseInt(option,value));
+                    break;
+                case "--index":
+                    config.setIndexDirectory(value);
+                    break;
+                case "--hash":
+                    config.setContentHashing(parseBoolean(option,value));
+                    break;
+                case "--keywords":
+                    config.setKeywords(parseBoolean(option,value));
+                    break;
+                case "--matcher":
+                    if(!value.equals(QUERY_MATCHER) && !value.equals(DICTIONARY_MATCHER)){
+                        throw new InvalidArgumentException("Option "+option+" must be "+QUERY_MATCHER+" or "+DICTIONARY_MATCHER);
+                    }
+                    config.setMatcher(value);
+                    break;
+                case "--match-threads":
+                    config.setMatchingThreads(parseInt(option,value));
+                    break;
+                case "--content-tokens":
+                    config.setContentTokens(parseInt(option,value));
+                    break;
+                case "--parse-timeout":
+                    config.setParseTimeout(parseInt(option,value));
+                    break;
+                case "--max-file-size":
+                    config.setMaxFileSize(parseInt(option,value));
+                    break;
+                case "--cache":
+                    config.setCacheDirectory(value);
+                    break;
+                case "--cache-size":
+                    config.setCacheSize(parseInt(option,value));
+                    break;
+                case "--dedup":
+                    config.setDeduplication(parseBoolean(option,value));
+                    break;
+                case "--include":
+                    config.getIncludes().add(value);
+                    break;
+                case "--exclude":
+                    config.getExcludes().add(value);
+                    break;
+                case "--skip":
+                    config.setSkippedKinds(parseKinds(option,value));
+                    break;
+                case "--format":
+                    if(!value.equals(RDFXML_FORMAT) && !value.equals(TURTLE_FORMAT)){
+                        throw new InvalidArgumentException("Option "+option+" must be "+RDFXML_FORMAT+" or "+TURTLE_FORMAT);
+                    }
+                    config.setFormat(value);
+                    break;
+                case "--delta":
+                    config.setDelta(parseBoolean(option,value));
+                    break;
+                case "--store":
+                    config.setStoreDirectory(value);
+                    break;
+                case "--snapshot":
+                    config.setSnapshotFile(value);
+                    break;
+                case "--schema":
+                    IndexSchema schema = IndexSchema.forLabel(value);
+                    if(schema == null){
+                        throw new InvalidArgumentException("Option "+option+" must be "+IndexSchema.FULL.getLabel()+", "
+                                +IndexSchema.MATCH_ONLY.getLabel()+" or "+IndexSchema.METADATA_ONLY.getLabel());
+                    }
+                    config.setSchema(schema);
+                    break;
+                default:
+                    throw new InvalidArgumentException("Unknown option "+option);
+            }
+            i+=2;
+        }
+        if(config.getMatcher().equals(DICTIONARY_MATCHER) && config.getSchema() == IndexSchema.MATCH_ONLY){
+            throw new InvalidArgumentException("The "+DICTIONARY_MATCHER+" matcher needs the term vectors of the "
+                    +IndexSchema.FULL.getLabel()+" schema");
+        }
+        return config;
+    }
+    
+    private static int parseInt(String option,String value) throws InvalidArgumentException{
+        try{
+            int number = Integer.parseInt(value);
+            if(number < 1){
+                throw new InvalidArgumentException("Option "+option+" must be a positive number");
+            }
+            return number;
+        }
+        catch(NumberFormatException ex){
+            throw new InvalidArgumentException("Option "+option+" must be a number");
+        }
+    }
+
+    private static Set<FileKind> parseKinds(String option,String value) throws InvalidArgumentException{
+        Set<FileKind> kinds = EnumSet.noneOf(FileKind.class);
+        if(value.equals("none")){
+            return kinds;
+        }
+        for(String label:value.split(",")){
+            FileKind kind = FileKind.forLabel(label.trim());
+            if(kind == null){
+                StringBuilder labels = new StringBuilder();
+                for(FileKind known:FileKind.values()){
+                    labels.append(labels.length() == 0 ? "" : ", ").append(known.getLabel());
+                }
+                throw new InvalidArgumentException("Option "+option+" must be none or a list of: "+labels);
+            }
+            kinds.add(kind);
+        }
+        return kinds;
+    }
+
+    private static boolean parseBoolean(String option,String value) throws InvalidArgumentException{
+        if(value.equals("true") || value.equals("on")){
+            return true;
+        }
+        if(value.equals("false") || value.equals("off")){
+            return false;
+        }
+        throw new InvalidArgumentException("Option "+option+" must be on or off");
+    }
+
+    public int getExtractionWorkers() {
+        return extractionWorkers;
+    }
+
+    public void setExtractionWorkers(int extractionWorkers) {
+        this.extractionWorkers = extractionWorkers;
+    }
+
+    /**
+     * Directory holding a persistent Lucene index, or null to index into memory.
+     */
+    public String getIndexDirectory() {
+        return indexDirectory;
+    }
+
+    public void setIndexDirectory(String indexDirectory) {
+        this.indexDirectory = indexDirectory;
+    }
+
+    /**
+     * Whether the file manifest of a persistent index also records a content
+     * hash, so that files whose modification time changed but whose bytes did
+     * not are left alone.
+     */
+    public boolean isContentHashing() {
+        return contentHashing;
+    }
+
+    public void setContentHashing(boolean contentHashing) {
+        this.contentHashing = contentHashing;
+    }
+
+    /**
+     * Whether the high tf-idf keywords needed for content matching are
+     * generated. Filename, author and organisation matching do not use them.
+     */
+    public boolean isKeywords() {
+        return keywords;
+    }
+
+    public void setKeywords(boolean keywords) {
+        this.keywords = keywords;
+    }
+
+    /**
+     * How concepts are matched against the index: "query" runs the search
+     * methods of DirectoryIndexer for every concept, "dictionary" streams every
+     * document once through a compiled dictionary of all concepts.
+     */
+    public String getMatcher() {
+        return matcher;
+    }
+
+    public void setMatcher(String matcher) {
+        this.matcher = matcher;
+    }
+
+    /**
+     * Number of threads running the per concept queries of the query matcher.
+     */
+    public int getMatchingThreads() {
+        return matchingThreads;
+    }
+
+    public void setMatchingThreads(int matchingThreads) {
+        this.matchingThreads = matchingThreads;
+    }
+
+    /**
+     * Maximum number of tokens indexed from the contents of a single file.
+     * Extraction of a file stops once its budget is used up.
+     */
+    public int getContentTokens() {
+        return contentTokens;
+    }
+
+    public void setContentTokens(int contentTokens) {
+        this.contentTokens = contentTokens;
+    }
+
+    /**
+     * Seconds a single file may be parsed before extraction is cut short.
+     */
+    public int getParseTimeout() {
+        return parseTimeout;
+    }
+
+    public void setParseTimeout(int parseTimeout) {
+        this.parseTimeout = parseTimeout;
+    }
+
+    /**
+     * Size in megabytes above which a file is indexed by name only.
+     */
+    public int getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    public void setMaxFileSize(int maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * Directory of the extraction cache, or null to parse every file.
+     */
+    public String getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    public void setCacheDirectory(String cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Size in megabytes the extracted text in the cache may take.
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Whether copies of a file are detected by content hash, so that only one
+     * of them is parsed and has its contents indexed.
+     */
+    public boolean isDeduplication() {
+        return deduplication;
+    }
+
+    public void setDeduplication(boolean deduplication) {
+        this.deduplication = deduplication;
+    }
+
+    /**
+     * Glob patterns of the files to index, all files when empty. A pattern
+     * with a "/" is matched against the path relative to the input directory,
+     * any other pattern against the file name.
+     */
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    public void setIncludes(List<String> includes) {
+        this.includes = includes;
+    }
+
+    /**
+     * Glob patterns of the files and directories to leave out, matched like
+     * the includes.
+     */
+    public List<String> getExcludes() {
+        return excludes;
+    }
+
+    public void setExcludes(List<String> excludes) {
+        this.excludes = excludes;
+    }
+
+    /**
+     * Kinds of file that are not parsed but indexed by name only, as
+     * recognised from their first bytes and extension.
+     */
+    public Set<FileKind> getSkippedKinds() {
+        return skippedKinds;
+    }
+
+    public void setSkippedKinds(Set<FileKind> skippedKinds) {
+        this.skippedKinds = skippedKinds;
+    }
+
+    /**
+     * Format the ontology is written in: RDF/XML, or Turtle streamed one
+     * statement at a time.
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    /**
+     * Whether only the statements added by the run are written, as
+     * N-Triples next to the ontology, which is left as it was.
+     */
+    public boolean isDelta() {
+        return delta;
+    }
+
+    public void setDelta(boolean delta) {
+        this.delta = delta;
+    }
+
+    /**
+     * Directory of the disk-backed store the ontology is kept in, or null to
+     * read it into memory. The ontology file is imported into the store on
+     * the first run only; later runs read and update the store.
+     */
+    public String getStoreDirectory() {
+        return storeDirectory;
+    }
+
+    public void setStoreDirectory(String storeDirectory) {
+        this.storeDirectory = storeDirectory;
+    }
+
+    /**
+     * File the lookup tables read from the ontology are saved to, so that
+     * they are loaded from there rather than parsed while the ontology file
+     * does not change, or null. Not used with a store.
+     */
+    public String getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    public void setSnapshotFile(String snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * What the index keeps of every file. Changing it rebuilds the index.
+     */
+    public IndexSchema getSchema() {
+        return schema;
+    }
+
+    public void setSchema(IndexSchema schema) {
+        this.schema = schema;
+    }
+    
+}
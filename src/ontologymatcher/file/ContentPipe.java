@@ -0,0 +1,206 @@
+
+package ontologymatcher.file;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Character buffer between the thread parsing a file, which writes the text
+ * Tika reports, and the thread indexing it, which reads it through the
+ * analyzer. Text that does not fit in the fixed size buffer is spilled to a
+ * temporary file until the reader has caught up, so the parse never waits
+ * for the indexing of earlier files and the memory used for the text of a
+ * file does not depend on its size.
+ */
+final class ContentPipe {
+
+    private final char[] buffer;
+    private int head;
+    private int count;
+    private FileChannel spill;
+    private long spillWritten;
+    private long spillRead;
+    private boolean finished;
+    private boolean closed;
+    private boolean truncated;
+    private boolean aborted;
+
+    ContentPipe(int capacity){
+        buffer = new char[capacity];
+    }
+
+    /**
+     * Appends to the buffer while nothing is spilled, and to the spill file
+     * otherwise, so that the text is read back in the order it was written.
+     */
+    private synchronized void write(char[] chars,int offset,int length) throws IOException{
+        if(closed || aborted){
+            throw new IOException("Contents reader was closed");
+        }
+        while(length > 0 && count < buffer.length && spillRead == spillWritten){
+            int tail = (head+count) % buffer.length;
+            int n = Math.min(length, Math.min(buffer.length-count, buffer.length-tail));
+            System.arraycopy(chars, offset, buffer, tail, n);
+            count += n;
+            offset += n;
+            length -= n;
+        }
+        if(length > 0){
+            if(spill == null){
+                spill = FileChannel.open(Files.createTempFile("contents", ".tmp"),StandardOpenOption.READ,
+                        StandardOpenOption.WRITE,StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            ByteBuffer bytes = ByteBuffer.allocate(length*2);
+            bytes.asCharBuffer().put(chars, offset, length);
+            while(bytes.hasRemaining()){
+                spill.write(bytes, spillWritten*2+bytes.position());
+            }
+            spillWritten += length;
+        }
+        notifyAll();
+    }
+
+    private synchronized int read(char[] chars,int offset,int length) throws IOException{
+        if(length == 0){
+            return 0;
+        }
+        while(count == 0 && spillRead == spillWritten && !finished && !closed){
+            waitForChange();
+        }
+        if(closed){
+            throw new IOException("Contents reader was closed");
+        }
+        if(aborted){
+            throw new IOException("Contents were dropped when the extraction was cut short");
+        }
+        if(count == 0){
+            return spillRead < spillWritten ? readSpill(chars,offset,length) : -1;
+        }
+        int n = Math.min(length, Math.min(count, buffer.length-head));
+        System.arraycopy(buffer, head, chars, offset, n);
+        head = (head+n) % buffer.length;
+        count -= n;
+        notifyAll();
+        return n;
+    }
+
+    /**
+     * Reads spilled text once the buffer is empty. When the reader has caught
+     * up with the spill file, the next writes go to the buffer again and the
+     * file is reused from its start.
+     */
+    private int readSpill(char[] chars,int offset,int length) throws IOException{
+        int n = (int)Math.min(length, spillWritten-spillRead);
+        ByteBuffer bytes = ByteBuffer.allocate(n*2);
+        while(bytes.hasRemaining()){
+            if(spill.read(bytes, spillRead*2+bytes.position()) < 0){
+                throw new EOFException("Spilled contents are shorter than written");
+            }
+        }
+        bytes.flip();
+        bytes.asCharBuffer().get(chars, offset, n);
+        spillRead += n;
+        if(spillRead == spillWritten){
+            spillRead = 0;
+            spillWritten = 0;
+        }
+        notifyAll();
+        return n;
+    }
+
+    private void waitForChange() throws InterruptedIOException{
+        try{
+            wait();
+        }
+        catch(InterruptedException ex){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while streaming file contents");
+        }
+    }
+
+    /**
+     * Called by the writing side once the parse is over, successful or not.
+     */
+    synchronized void finish(){
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * Stops the writing side; the reading side fails on its next read, so
+     * that the text it has read so far is not indexed.
+     */
+    synchronized void abort(){
+        if(!finished){
+            truncated = true;
+        }
+        finished = true;
+        aborted = true;
+        notifyAll();
+    }
+
+    /**
+     * Stops both sides and removes the spill file.
+     */
+    synchronized void close(){
+        if(!finished){
+            truncated = true;
+        }
+        closed = true;
+        notifyAll();
+        if(spill != null){
+            try{
+                spill.close();
+            }
+            catch(IOException ex){
+                // the file is deleted on close anyway
+            }
+            spill = null;
+        }
+    }
+
+    /**
+     * Whether the reading side stopped before the whole text was written.
+     */
+    synchronized boolean isTruncated(){
+        return truncated;
+    }
+
+    Writer writer(){
+        return new Writer(){
+            @Override
+            public void write(char[] chars, int offset, int length) throws IOException {
+                ContentPipe.this.write(chars, offset, length);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    Reader reader(){
+        return new Reader(){
+            @Override
+            public int read(char[] chars, int offset, int length) throws IOException {
+                return ContentPipe.this.read(chars, offset, length);
+            }
+
+            @Override
+            public void close() {
+                ContentPipe.this.close();
+            }
+        };
+    }
+}
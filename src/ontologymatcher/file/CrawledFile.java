@@ -0,0 +1,32 @@
+
+package ontologymatcher.file;
+
+import java.io.File;
+
+/**
+ * A file found by the {@link FileCrawler}, with its canonical path and the
+ * attributes read while crawling.
+ */
+public class CrawledFile {
+
+    private final String path;
+    private final FileAttributes attributes;
+
+    public CrawledFile(String path,FileAttributes attributes){
+        this.path = path;
+        this.attributes = attributes;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public File getFile() {
+        return new File(path);
+    }
+
+    public FileAttributes getAttributes() {
+        return attributes;
+    }
+
+}
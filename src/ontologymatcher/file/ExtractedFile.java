@@ -0,0 +1,418 @@
+
+package ontologymatcher.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import ontologymatcher.utils.Utils;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A file being parsed by an {@link ExtractionService}. The parse runs on one
+ * of its threads while another one reads the extracted text from
+ * {@link #getContents()}, so the text is never held in memory as a whole.
+ * Author and company are only known once {@link #await()} returns. It only
+ * lives until the file is indexed; what is needed afterwards is kept in a
+ * {@link FileMetadata}.
+ *
+ * A parse that runs over its time budget, or reads more bytes than its byte
+ * budget, is cut short: its text is dropped and only the metadata read
+ * until then is kept.
+ */
+public class ExtractedFile implements Closeable {
+
+    private static final int BUFFER_SIZE = 64*1024;
+
+    private final File file;
+    private final long size;
+    private final long maxBytes;
+    private final long modified;
+    private final String fileName;
+    private final String fileParentPath;
+    private final Metadata metadata;
+    private final ContentPipe pipe;
+    private final CountDownLatch done;
+    private volatile Exception failure;
+    private volatile InputStream input;
+    private volatile boolean expired;
+    private volatile boolean overBudget;
+    private volatile boolean abandoned;
+    private volatile boolean cacheFailed;
+    private volatile String abandonedAuthor;
+    private volatile String abandonedCompany;
+    private volatile long startNanos;
+    private volatile boolean started;
+    private Thread worker;
+    private boolean finished;
+
+    /**
+     * @param contents whether the text of the file is needed, or only its
+     * metadata
+     * @param maxBytes number of bytes the parser may read from the file
+     */
+    ExtractedFile(File file,long size,long modified,boolean contents,long maxBytes){
+
+        this.file = file;
+        this.size = size;
+        this.maxBytes = maxBytes;
+        this.modified = modified;
+        fileName = Utils.getBaseName(file);
+        fileParentPath = file.getParent();
+        metadata = new Metadata();
+        pipe = contents ? new ContentPipe(BUFFER_SIZE) : null;
+        done = new CountDownLatch(1);
+    }
+
+    /**
+     * Parses the file on the calling thread; text the reader of the contents
+     * has not caught up with yet is spilled to disk by the pipe, so the parse
+     * does not wait for it. When a cache is given, a file found in it is
+     * read from there instead, and a file that is not is added to it once
+     * parsed completely. A cached text found damaged once it has been read
+     * is dropped from the cache and makes the contents reader fail, see
+     * {@link #isCacheFailed()}. Failures are reported by {@link #await()}.
+     */
+    void parse(Parser parser,ExtractionCache cache){
+        synchronized(this){
+            worker = Thread.currentThread();
+        }
+        startNanos = System.nanoTime();
+        started = true;
+        try{
+            String key = cache == null ? null : Utils.fingerprint(file,size,modified);
+            ExtractionCache.Entry entry = key == null ? null : cache.get(key);
+            ExtractionCache.Text text = entry != null && pipe != null && entry.hasText() ? cache.openText(key,entry) : null;
+            if(entry != null && (pipe == null || text != null)){
+                try{
+                    load(entry,text);
+                }
+                catch(IOException ex){
+                    cache.drop(key,entry);
+                    cacheFailed = true;
+                    if(pipe != null){
+                        pipe.abort();
+                    }
+                    throw ex;
+                }
+            }
+            else if(key != null && pipe != null){
+                ExtractionCache.Pending pending = cache.create(key);
+                boolean complete = false;
+                try{
+                    parse(parser,new TeeWriter(pipe.writer(),pending.writer()));
+                    complete = !expired && !pipe.isTruncated();
+                }
+                finally{
+                    if(complete){
+                        pending.commit(getAuthor(),getCompany());
+                    }
+                    else{
+                        pending.discard();
+                    }
+                }
+            }
+            else{
+                parse(parser,pipe == null ? null : pipe.writer());
+                if(key != null && !expired){
+                    cache.put(key,getAuthor(),getCompany());
+                }
+            }
+        }
+        catch(IOException | SAXException | TikaException | RuntimeException ex){
+            failure = ex;
+        }
+        finally{
+            synchronized(this){
+                if(pipe != null){
+                    pipe.finish();
+                }
+                finished = true;
+                worker = null;
+            }
+            done.countDown();
+        }
+    }
+
+    private void parse(Parser parser,Writer text) throws IOException, SAXException, TikaException{
+        try (InputStream stream = new BudgetInputStream(TikaInputStream.get(file, metadata))) {
+            input = stream;
+            if(!expired){
+                ContentHandler handler = text == null ? new DefaultHandler() : new BodyContentHandler(text);
+                parser.parse(stream, handler, metadata,new ParseContext());
+            }
+        }
+    }
+
+    /**
+     * Takes the metadata, and the text when it is needed, from the cache.
+     */
+    private void load(ExtractionCache.Entry entry,ExtractionCache.Text text) throws IOException{
+        if(entry.getAuthor() != null){
+            metadata.set(Metadata.AUTHOR, entry.getAuthor());
+        }
+        if(entry.getCompany() != null){
+            metadata.set(Metadata.COMPANY, entry.getCompany());
+        }
+        if(text != null){
+            try{
+                Writer writer = pipe.writer();
+                Reader reader = text.reader();
+                char[] buffer = new char[8192];
+                int read;
+                while((read = reader.read(buffer)) > 0){
+                    writer.write(buffer, 0, read);
+                }
+                text.verify();
+            }
+            finally{
+                text.close();
+            }
+        }
+    }
+
+    /**
+     * Ends the file without parsing it, leaving only its name.
+     */
+    void skip(){
+        done.countDown();
+    }
+
+    /**
+     * Called when the parse runs over its time or byte budget: the text is
+     * dropped and the input is closed, which makes most parsers fail soon.
+     * @return false if the parse has ended or was cut short before
+     */
+    synchronized boolean expire(){
+        if(finished || expired){
+            return false;
+        }
+        expired = true;
+        if(pipe != null){
+            pipe.abort();
+        }
+        InputStream stream = input;
+        if(stream != null){
+            try{
+                stream.close();
+            }
+            catch(IOException ex){
+                // the parser is failing anyway
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Called when an expired parse still did not stop: the metadata read so
+     * far is kept, {@link #await()} no longer waits for it and its thread is
+     * interrupted. A value the parser is setting at that moment may be
+     * missed.
+     * @return false if the parse has ended in the meantime
+     */
+    synchronized boolean abandon(){
+        if(finished){
+            return false;
+        }
+        abandonedAuthor = metadata.get(Metadata.AUTHOR);
+        abandonedCompany = metadata.get(Metadata.COMPANY);
+        abandoned = true;
+        worker.interrupt();
+        done.countDown();
+        return true;
+    }
+
+    /**
+     * Whether the parse was abandoned. Final once the parse has returned.
+     */
+    boolean isAbandoned(){
+        return abandoned;
+    }
+
+    /**
+     * Whether the parse was cut short by its time or byte budget, in which
+     * case its text is not indexed. Final once {@link #await()} returns.
+     */
+    public boolean isExpired(){
+        return expired;
+    }
+
+    /**
+     * Whether the text was taken from the cache and found damaged. The entry
+     * has been dropped, so extracting the file again parses it.
+     */
+    public boolean isCacheFailed(){
+        return cacheFailed;
+    }
+
+    /**
+     * Whether the parse was cut short because it read more bytes than its
+     * byte budget.
+     */
+    boolean isOverBudget(){
+        return overBudget;
+    }
+
+    /**
+     * Whether the parse has ended or was abandoned.
+     */
+    boolean isDone(){
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Time since a thread started the parse, 0 while it waits for one.
+     */
+    long getParseMillis(){
+        return started ? (System.nanoTime()-startNanos)/1000000 : 0;
+    }
+
+    /**
+     * Waits for the parse to end and rethrows its failure, unless it failed
+     * because the contents reader was closed before the end of the text or
+     * because the parse ran over its time budget.
+     */
+    public void await() throws IOException, SAXException, TikaException{
+        try{
+            done.await();
+        }
+        catch(InterruptedException ex){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while extracting "+file);
+        }
+        Exception ex = failure;
+        if(ex == null || abandoned || expired || (pipe != null && pipe.isTruncated())){
+            return;
+        }
+        if(ex instanceof IOException){
+            throw (IOException)ex;
+        }
+        if(ex instanceof SAXException){
+            throw (SAXException)ex;
+        }
+        if(ex instanceof TikaException){
+            throw (TikaException)ex;
+        }
+        throw (RuntimeException)ex;
+    }
+
+    /**
+     * Stops the parse if it is still running.
+     */
+    @Override
+    public void close(){
+        if(pipe != null){
+            pipe.close();
+        }
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getFileParentPath() {
+        return fileParentPath;
+    }
+
+    public String getAuthor() {
+        return abandoned ? abandonedAuthor : metadata.get(Metadata.AUTHOR);
+    }
+
+    public String getCompany() {
+        return abandoned ? abandonedCompany : metadata.get(Metadata.COMPANY);
+    }
+
+    /**
+     * Text of the file, or null when only its metadata is extracted. Can be
+     * read once.
+     */
+    public Reader getContents() {
+        return pipe == null ? null : pipe.reader();
+    }
+
+    /**
+     * Counts the bytes the parser reads and cuts the parse short once it has
+     * read more than the byte budget. Parsers that need random access spool
+     * the file through it, so their reads are counted as well.
+     */
+    private final class BudgetInputStream extends FilterInputStream {
+
+        private long read;
+
+        private BudgetInputStream(InputStream in){
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b >= 0){
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int n = super.read(bytes, offset, length);
+            if(n > 0){
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) throws IOException{
+            read += n;
+            if(read > maxBytes){
+                if(expire()){
+                    overBudget = true;
+                }
+                throw new IOException("Read more than "+maxBytes+" bytes of "+file);
+            }
+        }
+    }
+
+    /**
+     * Writes the text to the contents pipe and to the cache at once.
+     */
+    private static final class TeeWriter extends Writer {
+
+        private final Writer first;
+        private final Writer second;
+
+        private TeeWriter(Writer first,Writer second){
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            first.write(chars, offset, length);
+            second.write(chars, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            first.flush();
+            second.flush();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
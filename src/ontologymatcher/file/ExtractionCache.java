@@ -0,0 +1,380 @@
+
+package ontologymatcher.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * On disk cache of extraction results, shared by every run and every input
+ * root that uses the same cache directory. Entries are keyed by a fingerprint
+ * of the file content, size and modification time (see
+ * {@link ontologymatcher.utils.Utils#fingerprint}), so copies of a file in
+ * other folders hit the same entry.
+ *
+ * The author and company of every entry are kept in a single index file,
+ * with the length and CRC of its text; the extracted text of an entry is
+ * kept deflated in a file of its own. When the text files take more room
+ * than the cap, the least recently used entries are evicted.
+ *
+ * An open cache holds a lock on its directory, so runs sharing the cache
+ * take turns: a run opening it waits until the run using it closes it.
+ */
+public final class ExtractionCache implements Closeable {
+
+    private static final int VERSION = 2;
+    private static final String INDEX = "extraction.idx";
+    private static final String LOCK = "extraction.lock";
+    private static final String TEXT = ".z";
+    private static final String TEMP = ".tmp";
+
+    private final File directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String,Entry> entries;
+    private final FileChannel lockChannel;
+    private long bytes;
+
+    private ExtractionCache(File directory,long maxBytes,FileChannel lockChannel){
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.lockChannel = lockChannel;
+        entries = new LinkedHashMap<>(16,0.75f,true);
+    }
+
+    /**
+     * Opens the cache in the given directory, creating it when needed, and
+     * waits until no other run has it open. Text files that are not
+     * referenced by the index, left by an interrupted run, are removed.
+     */
+    public static ExtractionCache open(File directory,long maxBytes) throws IOException{
+        if(!directory.isDirectory() && !directory.mkdirs()){
+            throw new IOException("Cannot create extraction cache directory "+directory);
+        }
+        FileChannel lockChannel = FileChannel.open(new File(directory,LOCK).toPath(),
+                StandardOpenOption.CREATE,StandardOpenOption.WRITE);
+        try{
+            lockChannel.lock();
+        }
+        catch(IOException | OverlappingFileLockException ex){
+            lockChannel.close();
+            throw new IOException("Cannot lock extraction cache directory "+directory, ex);
+        }
+        try{
+            return load(new ExtractionCache(directory,maxBytes,lockChannel));
+        }
+        catch(IOException | RuntimeException ex){
+            lockChannel.close();
+            throw ex;
+        }
+    }
+
+    private static ExtractionCache load(ExtractionCache cache) throws IOException{
+        File directory = cache.directory;
+        File index = new File(directory,INDEX);
+        if(index.exists()){
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+                if(in.readInt() == VERSION){
+                    int count = in.readInt();
+                    for(int i=0;i<count;i++){
+                        String key = in.readUTF();
+                        String author = readString(in);
+                        String company = readString(in);
+                        long textBytes = in.readLong();
+                        long textCrc = in.readLong();
+                        if(textBytes < 0 || cache.textFile(key).length() == textBytes){
+                            cache.entries.put(key, new Entry(author,company,textBytes,textCrc));
+                            cache.bytes += Math.max(textBytes, 0);
+                        }
+                    }
+                }
+            }
+        }
+        File[] files = directory.listFiles();
+        if(files != null){
+            for(File file:files){
+                String name = file.getName();
+                boolean text = name.endsWith(TEXT) && cache.entries.containsKey(name.substring(0, name.length()-TEXT.length()));
+                if(!text && !name.equals(INDEX) && !name.equals(LOCK)){
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+        }
+        return cache;
+    }
+
+    private static String readString(DataInputStream in) throws IOException{
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeString(DataOutputStream out,String value) throws IOException{
+        out.writeBoolean(value != null);
+        if(value != null){
+            out.writeUTF(value);
+        }
+    }
+
+    private File textFile(String key){
+        return new File(directory,key+TEXT);
+    }
+
+    synchronized Entry get(String key){
+        return entries.get(key);
+    }
+
+    /**
+     * Opens the text of an entry. A text evicted by another thread since
+     * {@link #get}, or with the wrong length, is found here; damage inside
+     * the text is found by {@link Text#verify()} once it has been read. Such
+     * an entry is dropped, and the file is parsed again as if it had never
+     * been cached.
+     * @return the text, or null if it cannot be read
+     */
+    Text openText(String key,Entry entry){
+        FileChannel channel = null;
+        try{
+            channel = FileChannel.open(textFile(key).toPath(),StandardOpenOption.READ);
+            if(channel.size() != entry.textBytes){
+                throw new IOException("Cached text of "+key+" has the wrong size");
+            }
+            return new Text(key,channel,entry.textCrc);
+        }
+        catch(IOException ex){
+            if(channel != null){
+                try{
+                    channel.close();
+                }
+                catch(IOException closing){
+                    // the entry is dropped anyway
+                }
+            }
+            drop(key,entry);
+            return null;
+        }
+    }
+
+    /**
+     * Removes an entry, unless it was replaced in the meantime.
+     */
+    synchronized void drop(String key,Entry entry){
+        if(entries.get(key) != entry){
+            return;
+        }
+        entries.remove(key);
+        if(entry.textBytes >= 0){
+            bytes -= entry.textBytes;
+            textFile(key).delete();
+        }
+    }
+
+    /**
+     * Starts writing the text of a new entry, which is only added once the
+     * whole text has been written.
+     */
+    Pending create(String key) throws IOException{
+        File temp = File.createTempFile(key, TEMP, directory);
+        return new Pending(key,temp);
+    }
+
+    private synchronized void put(String key,Entry entry,File temp) throws IOException{
+        Entry previous = entries.remove(key);
+        if(previous != null && previous.textBytes > 0){
+            bytes -= previous.textBytes;
+        }
+        if(temp != null){
+            Files.move(temp.toPath(), textFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        else if(previous != null && previous.textBytes >= 0){
+            Files.deleteIfExists(textFile(key).toPath());
+        }
+        entries.put(key, entry);
+        bytes += Math.max(entry.textBytes, 0);
+        Iterator<Map.Entry<String,Entry>> eldest = entries.entrySet().iterator();
+        while(bytes > maxBytes && eldest.hasNext()){
+            Map.Entry<String,Entry> evicted = eldest.next();
+            if(evicted.getKey().equals(key)){
+                continue;
+            }
+            eldest.remove();
+            if(evicted.getValue().textBytes >= 0){
+                bytes -= evicted.getValue().textBytes;
+                Files.deleteIfExists(textFile(evicted.getKey()).toPath());
+            }
+        }
+    }
+
+    /**
+     * Adds the metadata of a file whose text is not needed.
+     */
+    synchronized void put(String key,String author,String company) throws IOException{
+        Entry entry = entries.get(key);
+        if(entry == null){
+            put(key,new Entry(author,company,-1,0),null);
+        }
+    }
+
+    /**
+     * Writes the index to a temporary file first and then moves it in place,
+     * in least recently used order so that the order survives a reload.
+     */
+    public synchronized void save() throws IOException{
+        File index = new File(directory,INDEX);
+        File temp = new File(directory,INDEX+TEMP);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for(Map.Entry<String,Entry> pair:entries.entrySet()){
+                Entry entry = pair.getValue();
+                out.writeUTF(pair.getKey());
+                writeString(out,entry.author);
+                writeString(out,entry.company);
+                out.writeLong(entry.textBytes);
+                out.writeLong(entry.textCrc);
+            }
+        }
+        Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Releases the directory to other runs. Entries added since
+     * {@link #save()} are lost.
+     */
+    @Override
+    public void close() throws IOException{
+        lockChannel.close();
+    }
+
+    static final class Entry {
+
+        private final String author;
+        private final String company;
+        private final long textBytes;
+        private final long textCrc;
+
+        private Entry(String author,String company,long textBytes,long textCrc){
+            this.author = author;
+            this.company = company;
+            this.textBytes = textBytes;
+            this.textCrc = textCrc;
+        }
+
+        String getAuthor(){
+            return author;
+        }
+
+        String getCompany(){
+            return company;
+        }
+
+        boolean hasText(){
+            return textBytes >= 0;
+        }
+    }
+
+    /**
+     * Text of an entry, kept open from the length check on so that an
+     * eviction does not take it away while it is read. The CRC of the
+     * deflated bytes is computed as they are read.
+     */
+    static final class Text implements Closeable {
+
+        private final String key;
+        private final FileChannel channel;
+        private final long crc;
+        private final CheckedInputStream checked;
+
+        private Text(String key,FileChannel channel,long crc){
+            this.key = key;
+            this.channel = channel;
+            this.crc = crc;
+            checked = new CheckedInputStream(new BufferedInputStream(Channels.newInputStream(channel)),new CRC32());
+        }
+
+        /**
+         * Can be read once.
+         */
+        Reader reader(){
+            return new InputStreamReader(new InflaterInputStream(checked),StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Reads what is left of the file after the text, and checks the CRC
+         * of the whole file against the one it was written with.
+         */
+        void verify() throws IOException{
+            byte[] buffer = new byte[512];
+            while(checked.read(buffer) >= 0){
+                // bytes after the end of the deflated stream count as well
+            }
+            if(checked.getChecksum().getValue() != crc){
+                throw new IOException("Cached text of "+key+" is damaged");
+            }
+        }
+
+        @Override
+        public void close() throws IOException{
+            channel.close();
+        }
+    }
+
+    /**
+     * Text of an entry being written while the file is parsed.
+     */
+    final class Pending {
+
+        private final String key;
+        private final File temp;
+        private final CheckedOutputStream checked;
+        private final Writer writer;
+
+        private Pending(String key,File temp) throws IOException{
+            this.key = key;
+            this.temp = temp;
+            checked = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(temp)),new CRC32());
+            writer = new OutputStreamWriter(new DeflaterOutputStream(checked),StandardCharsets.UTF_8);
+        }
+
+        Writer writer(){
+            return writer;
+        }
+
+        void commit(String author,String company) throws IOException{
+            writer.close();
+            put(key,new Entry(author,company,temp.length(),checked.getChecksum().getValue()),temp);
+        }
+
+        void discard(){
+            try{
+                writer.close();
+            }
+            catch(IOException ex){
+                // the entry is dropped anyway
+            }
+            temp.delete();
+        }
+    }
+}
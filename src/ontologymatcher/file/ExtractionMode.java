@@ -0,0 +1,33 @@
+
+package ontologymatcher.file;
+
+/**
+ * How much of a file the {@link ExtractionService} extracts.
+ */
+public enum ExtractionMode {
+
+    /**
+     * Text and metadata.
+     */
+    FULL("full text"),
+    /**
+     * Author and company only; the text Tika reports is dropped. Also used
+     * for files larger than the size budget.
+     */
+    METADATA("metadata only"),
+    /**
+     * Not parsed at all, because the file is of one of the skipped kinds: it
+     * is indexed by path and name only.
+     */
+    SKIP("name only");
+
+    private final String label;
+
+    private ExtractionMode(String label){
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
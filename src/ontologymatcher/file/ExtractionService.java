@@ -0,0 +1,214 @@
+
+package ontologymatcher.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.Parser;
+
+/**
+ * Parses files with one shared Tika parser on a fixed number of threads.
+ * Every parse has a time budget, counted from the moment a thread starts it,
+ * and a budget of bytes it may read from the file: a parse running over
+ * either is cut short, and the file is indexed with the metadata read so far
+ * but without text. A parse that still does not stop is abandoned and its
+ * thread is replaced, so a single pathological file cannot stall or fail the
+ * crawl. Which files are parsed at all is decided by the
+ * {@link FileClassifier} beforehand.
+ *
+ * Parses start in the order they are submitted, so a caller consuming the
+ * files in that order never waits for a parse that has not been started.
+ */
+public class ExtractionService implements Closeable {
+
+    /**
+     * How long an expired parse is given to stop before it is abandoned.
+     */
+    private static final long GRACE_MILLIS = 5000;
+    /**
+     * Shortest delay between two checks of the same parse.
+     */
+    private static final long CHECK_MILLIS = 100;
+
+    private final Parser parser;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledThreadPoolExecutor timer;
+    private final long timeoutMillis;
+    private final long maxBytes;
+    private final ExtractionCache cache;
+    private final AtomicInteger timedOut;
+    private final AtomicInteger overBudget;
+
+    /**
+     * @param maxBytes number of bytes a parse may read from its file
+     * @param cache cache of earlier extraction results, or null
+     */
+    public ExtractionService(int threads,long timeoutMillis,long maxBytes,ExtractionCache cache){
+        parser = new AutoDetectParser();
+        executor = new ThreadPoolExecutor(threads,threads,0L,TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),new DaemonThreadFactory());
+        timer = new ScheduledThreadPoolExecutor(1,new DaemonThreadFactory());
+        timer.setRemoveOnCancelPolicy(true);
+        this.timeoutMillis = timeoutMillis;
+        this.maxBytes = maxBytes;
+        this.cache = cache;
+        timedOut = new AtomicInteger();
+        overBudget = new AtomicInteger();
+    }
+
+    /**
+     * Starts parsing a file whose size and modification time have already
+     * been read. A skipped file is not parsed and has neither text nor
+     * metadata.
+     */
+    public ExtractedFile extract(File file,long size,long modified,ExtractionMode mode){
+        if(mode == ExtractionMode.SKIP){
+            ExtractedFile skipped = new ExtractedFile(file,size,modified,false,maxBytes);
+            skipped.skip();
+            return skipped;
+        }
+        final ExtractedFile extracted = new ExtractedFile(file,size,modified,mode == ExtractionMode.FULL,maxBytes);
+        final Supervision supervision = new Supervision(extracted);
+        executor.execute(new Runnable(){
+            @Override
+            public void run() {
+                extracted.parse(parser,cache);
+                supervision.finish();
+                if(extracted.isOverBudget()){
+                    overBudget.incrementAndGet();
+                }
+                if(extracted.isAbandoned()){
+                    // this thread was replaced when the parse was abandoned
+                    resize(-1);
+                }
+            }
+        });
+        supervision.schedule(supervision,timeoutMillis);
+        return extracted;
+    }
+
+    /**
+     * Checks a parse once its time budget may be used up, from its
+     * submission on. Only the time since a thread started the parse counts,
+     * so a file waiting for a free thread behind slower ones is not expired.
+     * A parse cut short by either budget that has not stopped after the
+     * grace period is abandoned, and another thread is started in place of the one it holds.
+     * The pending check is cancelled as soon as the parse finishes, so that
+     * the timer does not hold on to the file and its buffered text for the
+     * rest of the budget.
+     */
+    private final class Supervision implements Runnable {
+
+        private final ExtractedFile extracted;
+        private ScheduledFuture<?> check;
+        private boolean finished;
+
+        private Supervision(ExtractedFile extracted){
+            this.extracted = extracted;
+        }
+
+        private synchronized void schedule(Runnable task,long delay){
+            if(!finished){
+                check = timer.schedule(task, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private synchronized void finish(){
+            finished = true;
+            if(check != null){
+                check.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            if(extracted.isDone()){
+                return;
+            }
+            long remaining = timeoutMillis-extracted.getParseMillis();
+            if(remaining > 0 && !extracted.isExpired()){
+                schedule(this,Math.max(remaining, CHECK_MILLIS));
+                return;
+            }
+            if(extracted.expire()){
+                timedOut.incrementAndGet();
+            }
+            else if(!extracted.isExpired()){
+                return;
+            }
+            schedule(new Runnable(){
+                @Override
+                public void run() {
+                    if(extracted.abandon()){
+                        resize(1);
+                    }
+                }
+            }, GRACE_MILLIS);
+        }
+    }
+
+    /**
+     * Grows or shrinks the pool by one thread, keeping the number of threads
+     * that are not held by an abandoned parse constant.
+     */
+    private synchronized void resize(int delta){
+        int size = executor.getMaximumPoolSize()+delta;
+        if(delta > 0){
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        }
+        else{
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        }
+    }
+
+    /**
+     * Runs some other per file work, such as hashing, on the parser threads.
+     */
+    public <T> Future<T> submit(Callable<T> task){
+        return executor.submit(task);
+    }
+
+    /**
+     * Number of parses that ran over the time budget.
+     */
+    public int getTimedOutFiles(){
+        return timedOut.get();
+    }
+
+    /**
+     * Number of parses that read more bytes than the byte budget.
+     */
+    public int getOverBudgetFiles(){
+        return overBudget.get();
+    }
+
+    @Override
+    public void close(){
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final ThreadFactory threads = Executors.defaultThreadFactory();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = threads.newThread(task);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
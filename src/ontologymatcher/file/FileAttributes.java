@@ -6,35 +6,43 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
 import ontologymatcher.utils.Utils;
 
 
 public class FileAttributes {
-       
-    private final String creationTime;
-    private final String modificationTime;
-    private final String accessTime;
+
+    private final long creationTime;
+    private final long modificationTime;
+    private final long accessTime;
     private final String type;
-    private final String size;
-    
+    private final long size;
+
     public FileAttributes(File file) throws IOException{
-        
-        Path filePath = file.toPath();
-        BasicFileAttributes attr = Files.readAttributes(filePath, BasicFileAttributes.class);
 
-        creationTime=attr.creationTime().toString();
-        accessTime=attr.lastAccessTime().toString();
-        modificationTime=attr.lastModifiedTime().toString();
-        type=Utils.getFileExtension(file);
-        size=String.valueOf(attr.size());
+        this(file,Files.readAttributes(file.toPath(), BasicFileAttributes.class));
+    }
+
+    /**
+     * Keeps the attributes read while crawling, so they are not read again.
+     * Times are kept in nanoseconds, which is all the precision they have.
+     */
+    public FileAttributes(File file,BasicFileAttributes attr){
+
+        creationTime=attr.creationTime().to(TimeUnit.NANOSECONDS);
+        accessTime=attr.lastAccessTime().to(TimeUnit.NANOSECONDS);
+        modificationTime=attr.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        type=attr.isDirectory() ? "" : Utils.getFileExtension(file.getName());
+        size=attr.size();
     }
 
     public String getCreationTime() {
-        return creationTime;
+        return FileTime.from(creationTime, TimeUnit.NANOSECONDS).toString();
     }
 
     public String getModificationTime() {
-        return modificationTime;
+        return FileTime.from(modificationTime, TimeUnit.NANOSECONDS).toString();
     }
 
     public String getType() {
@@ -42,13 +50,23 @@ public class FileAttributes {
     }
 
     public String getSize() {
-        return size;
+        return String.valueOf(size);
     }
 
     public String getAccessTime() {
-        return accessTime;
+        return FileTime.from(accessTime, TimeUnit.NANOSECONDS).toString();
     }
-    
-    
-    
+
+    public long getLength() {
+        return size;
+    }
+
+    /**
+     * Modification time in milliseconds, as {@link File#lastModified()}.
+     */
+    public long getLastModified() {
+        return TimeUnit.NANOSECONDS.toMillis(modificationTime);
+    }
+
+
 }
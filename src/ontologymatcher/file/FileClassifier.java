@@ -0,0 +1,297 @@
+
+package ontologymatcher.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import ontologymatcher.utils.Utils;
+
+/**
+ * Decides, before a file reaches Tika, whether it is worth parsing. A file
+ * is recognised by the magic bytes at the start of its first few KB, falling
+ * back to its extension, and skipped when its kind is one of the skipped
+ * kinds. A file larger than the size budget is only parsed for its
+ * metadata, and the parse stops once it has read that many bytes. Other
+ * files are parsed for their text when they are documents (see
+ * {@link Utils#isDocument(File)}) and text is wanted, and for their metadata
+ * otherwise.
+ *
+ * The number of files and bytes sent to each mode is counted for the report
+ * printed at the end of a run.
+ */
+public class FileClassifier {
+
+    private static final int SNIFF_BYTES = 4096;
+    private static final List<Signature> SIGNATURES = new ArrayList<>();
+    private static final Map<String,FileKind> EXTENSIONS = new HashMap<>();
+    private static final Set<String> OFFICE_ZIPS = new HashSet<>(Arrays.asList(
+            "docx","docm","xlsx","xlsm","pptx","pptm","odt","ods","odp","epub"));
+    private static final Set<String> JAVA_ZIPS = new HashSet<>(Arrays.asList("jar","war","ear","apk","aar"));
+    private static final byte[] ZIP = ascii("PK\u0003\u0004");
+    private static final byte[] FTYP = ascii("ftyp");
+    private static final byte[] RIFF = ascii("RIFF");
+    private static final byte[] DOS_EXECUTABLE = ascii("MZ");
+
+    static{
+        signature(FileKind.DOCUMENT,0,ascii("%PDF"));
+        signature(FileKind.DOCUMENT,0,bytes(0xD0,0xCF,0x11,0xE0,0xA1,0xB1,0x1A,0xE1));
+        signature(FileKind.IMAGE,0,bytes(0xFF,0xD8,0xFF));
+        signature(FileKind.IMAGE,0,bytes(0x89,'P','N','G'));
+        signature(FileKind.IMAGE,0,ascii("GIF8"));
+        signature(FileKind.IMAGE,0,ascii("II*\u0000"));
+        signature(FileKind.IMAGE,0,ascii("MM\u0000*"));
+        signature(FileKind.AUDIO,0,ascii("ID3"));
+        signature(FileKind.AUDIO,0,ascii("fLaC"));
+        signature(FileKind.AUDIO,0,ascii("OggS"));
+        signature(FileKind.VIDEO,0,bytes(0x1A,0x45,0xDF,0xA3));
+        signature(FileKind.VIDEO,0,ascii("FLV\u0001"));
+        signature(FileKind.VIDEO,0,bytes(0x00,0x00,0x01,0xBA));
+        signature(FileKind.VIDEO,0,bytes(0x00,0x00,0x01,0xB3));
+        signature(FileKind.VIDEO,0,bytes(0x30,0x26,0xB2,0x75,0x8E,0x66,0xCF,0x11));
+        signature(FileKind.ARCHIVE,0,bytes(0x1F,0x8B));
+        signature(FileKind.ARCHIVE,0,ascii("BZh"));
+        signature(FileKind.ARCHIVE,0,bytes(0xFD,'7','z','X','Z',0x00));
+        signature(FileKind.ARCHIVE,0,bytes('7','z',0xBC,0xAF,0x27,0x1C));
+        signature(FileKind.ARCHIVE,0,ascii("Rar!\u001A\u0007"));
+        signature(FileKind.ARCHIVE,0,bytes(0x28,0xB5,0x2F,0xFD));
+        signature(FileKind.ARCHIVE,257,ascii("ustar"));
+        signature(FileKind.EXECUTABLE,0,bytes(0x7F,'E','L','F'));
+        signature(FileKind.EXECUTABLE,0,bytes(0xFE,0xED,0xFA,0xCE));
+        signature(FileKind.EXECUTABLE,0,bytes(0xFE,0xED,0xFA,0xCF));
+        signature(FileKind.EXECUTABLE,0,bytes(0xCE,0xFA,0xED,0xFE));
+        signature(FileKind.EXECUTABLE,0,bytes(0xCF,0xFA,0xED,0xFE));
+        signature(FileKind.EXECUTABLE,0,bytes(0xCA,0xFE,0xBA,0xBE));
+        signature(FileKind.EXECUTABLE,0,ascii("!<arch>\n"));
+        signature(FileKind.EXECUTABLE,0,ascii("\u0000asm"));
+        signature(FileKind.DISK_IMAGE,0,bytes('Q','F','I',0xFB));
+        signature(FileKind.DISK_IMAGE,0,ascii("KDMV"));
+        signature(FileKind.DISK_IMAGE,0,ascii("conectix"));
+        signature(FileKind.DISK_IMAGE,0,ascii("vhdxfile"));
+
+        extensions(FileKind.DISK_IMAGE,"iso","img","dmg","vmdk","vhd","vhdx","vdi","qcow2");
+        extensions(FileKind.VIDEO,"mp4","m4v","mov","avi","mkv","webm","wmv","flv","mpg","mpeg","vob");
+        extensions(FileKind.AUDIO,"mp3","wav","flac","ogg","m4a","aac","wma");
+        extensions(FileKind.ARCHIVE,"zip","gz","tgz","bz2","xz","7z","rar","tar","zst");
+        extensions(FileKind.EXECUTABLE,"exe","dll","so","o","a","lib","obj","class","jar","war","pyc","bin");
+    }
+
+    private final long maxBytes;
+    private final Set<FileKind> skipped;
+    private final boolean text;
+    private final Map<ExtractionMode,long[]> modes;
+    private final Map<FileKind,long[]> kinds;
+    private int oversized;
+
+    /**
+     * @param maxBytes size above which only the metadata of a file is read
+     * @param skipped kinds of file that are not parsed
+     * @param text whether the text of documents is extracted
+     */
+    public FileClassifier(long maxBytes,Set<FileKind> skipped,boolean text){
+        this.maxBytes = maxBytes;
+        this.skipped = skipped;
+        this.text = text;
+        modes = new EnumMap<>(ExtractionMode.class);
+        for(ExtractionMode mode:ExtractionMode.values()){
+            modes.put(mode, new long[2]);
+        }
+        kinds = new EnumMap<>(FileKind.class);
+        for(FileKind kind:FileKind.values()){
+            kinds.put(kind, new long[2]);
+        }
+    }
+
+    public ExtractionMode classify(CrawledFile crawled){
+        long size = crawled.getAttributes().getLength();
+        FileKind kind = kindOf(crawled.getFile(),crawled.getAttributes().getType().toLowerCase());
+        count(kinds.get(kind),size);
+        ExtractionMode mode;
+        if(skipped.contains(kind)){
+            mode = ExtractionMode.SKIP;
+        }
+        else if(size > maxBytes){
+            oversized++;
+            mode = ExtractionMode.METADATA;
+        }
+        else{
+            mode = text && Utils.isDocument(crawled.getFile()) ? ExtractionMode.FULL : ExtractionMode.METADATA;
+        }
+        count(modes.get(mode),size);
+        return mode;
+    }
+
+    private static void count(long[] counts,long size){
+        counts[0]++;
+        counts[1] += size;
+    }
+
+    /**
+     * Recognises a file by its magic bytes first, then by whether it looks
+     * like text, and only then by its extension, so that a misnamed file is
+     * treated as what it is. A file that cannot be read is taken for a
+     * document and left to Tika.
+     */
+    static FileKind kindOf(File file,String extension){
+        byte[] head = new byte[SNIFF_BYTES];
+        int length;
+        try{
+            length = read(file,head);
+        }
+        catch(IOException ex){
+            return FileKind.DOCUMENT;
+        }
+        if(startsWith(head,length,0,ZIP)){
+            if(OFFICE_ZIPS.contains(extension)){
+                return FileKind.DOCUMENT;
+            }
+            return JAVA_ZIPS.contains(extension) ? FileKind.EXECUTABLE : FileKind.ARCHIVE;
+        }
+        if(startsWith(head,length,4,FTYP)){
+            String brand = new String(head,8,Math.max(0, Math.min(4, length-8)),StandardCharsets.US_ASCII);
+            if(brand.equals("M4A ")){
+                return FileKind.AUDIO;
+            }
+            return brand.equals("heic") || brand.equals("heix") || brand.equals("mif1") || brand.equals("avif") ?
+                    FileKind.IMAGE : FileKind.VIDEO;
+        }
+        if(startsWith(head,length,0,RIFF)){
+            String format = new String(head,8,Math.max(0, Math.min(4, length-8)),StandardCharsets.US_ASCII);
+            if(format.equals("AVI ")){
+                return FileKind.VIDEO;
+            }
+            if(format.equals("WAVE")){
+                return FileKind.AUDIO;
+            }
+            if(format.equals("WEBP")){
+                return FileKind.IMAGE;
+            }
+        }
+        for(Signature signature:SIGNATURES){
+            if(startsWith(head,length,signature.offset,signature.magic)){
+                return signature.kind;
+            }
+        }
+        if(isText(head,length)){
+            return FileKind.TEXT;
+        }
+        if(startsWith(head,length,0,DOS_EXECUTABLE)){
+            return FileKind.EXECUTABLE;
+        }
+        FileKind kind = EXTENSIONS.get(extension);
+        if(kind != null){
+            return kind;
+        }
+        return Utils.isDocument(file) ? FileKind.DOCUMENT : FileKind.BINARY;
+    }
+
+    private static int read(File file,byte[] buffer) throws IOException{
+        try (InputStream in = new FileInputStream(file)) {
+            int length = 0;
+            int read;
+            while(length < buffer.length && (read = in.read(buffer, length, buffer.length-length)) > 0){
+                length += read;
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Text has no NUL bytes, unless it is UTF-16 or UTF-32 with a byte order
+     * mark.
+     */
+    private static boolean isText(byte[] head,int length){
+        if(length >= 2 && ((head[0] == (byte)0xFF && head[1] == (byte)0xFE) || (head[0] == (byte)0xFE && head[1] == (byte)0xFF))){
+            return true;
+        }
+        if(length >= 4 && head[0] == 0 && head[1] == 0 && head[2] == (byte)0xFE && head[3] == (byte)0xFF){
+            return true;
+        }
+        for(int i=0;i<length;i++){
+            if(head[i] == 0){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] head,int length,int offset,byte[] magic){
+        if(offset+magic.length > length){
+            return false;
+        }
+        for(int i=0;i<magic.length;i++){
+            if(head[offset+i] != magic[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void signature(FileKind kind,int offset,byte[] magic){
+        SIGNATURES.add(new Signature(kind,offset,magic));
+    }
+
+    private static void extensions(FileKind kind,String... extensions){
+        for(String extension:extensions){
+            EXTENSIONS.put(extension, kind);
+        }
+    }
+
+    private static byte[] ascii(String magic){
+        return magic.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] bytes(int... values){
+        byte[] magic = new byte[values.length];
+        for(int i=0;i<values.length;i++){
+            magic[i] = (byte)values[i];
+        }
+        return magic;
+    }
+
+    public long getFiles(ExtractionMode mode){
+        return modes.get(mode)[0];
+    }
+
+    public long getBytes(ExtractionMode mode){
+        return modes.get(mode)[1];
+    }
+
+    public long getFiles(FileKind kind){
+        return kinds.get(kind)[0];
+    }
+
+    public long getBytes(FileKind kind){
+        return kinds.get(kind)[1];
+    }
+
+    /**
+     * Number of files of a kind that is parsed that were larger than the
+     * size budget and only parsed for their metadata.
+     */
+    public int getOversizedFiles(){
+        return oversized;
+    }
+
+    private static final class Signature {
+
+        private final FileKind kind;
+        private final int offset;
+        private final byte[] magic;
+
+        private Signature(FileKind kind,int offset,byte[] magic){
+            this.kind = kind;
+            this.offset = offset;
+            this.magic = magic;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+
+package ontologymatcher.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import ontologymatcher.utils.StageQueue;
+
+/**
+ * Lists the files of an input tree with a single attribute read per file.
+ *
+ * The tree is walked from its canonical path without following symbolic
+ * links, so the paths it reports are canonical without resolving every one
+ * of them. Links are resolved one by one instead: a link to a file reports
+ * the file under its real path, and a link to a directory outside the tree
+ * walks that directory once. Links back into the tree or to one of its
+ * ancestors are skipped, so link loops end. Paths that cannot be read are
+ * counted and skipped rather than failing the crawl.
+ *
+ * Include and exclude patterns are globs. A pattern with a "/" is matched
+ * against the path relative to the root, any other pattern against the file
+ * name only. Excluded directories are not walked.
+ */
+public class FileCrawler {
+
+    private final List<Glob> includes;
+    private final List<Glob> excludes;
+    private final Set<String> seen;
+    private final Set<Path> linkedDirectories;
+    private List<CrawledFile> files;
+    private StageQueue<CrawledFile> queue;
+    private Path root;
+    private int skipped;
+    private long elapsed;
+
+    public FileCrawler(List<String> includes,List<String> excludes){
+        FileSystem fileSystem = FileSystems.getDefault();
+        this.includes = new ArrayList<>();
+        for(String pattern:includes){
+            this.includes.add(new Glob(fileSystem,pattern));
+        }
+        this.excludes = new ArrayList<>();
+        for(String pattern:excludes){
+            this.excludes.add(new Glob(fileSystem,pattern));
+        }
+        seen = new HashSet<>();
+        linkedDirectories = new HashSet<>();
+    }
+
+    /**
+     * Lists the readable, non hidden files under the given root, or the root
+     * itself when it is a file, in directory listing order.
+     */
+    public List<CrawledFile> crawl(File start) throws IOException{
+        files = new ArrayList<>();
+        try{
+            walk(start);
+            return files;
+        }
+        finally{
+            files = null;
+        }
+    }
+
+    /**
+     * Hands the files to the next stage of a pipeline as they are found,
+     * blocking while the queue is full. The queue is not finished here.
+     */
+    public void crawl(File start,StageQueue<CrawledFile> queue) throws IOException{
+        this.queue = queue;
+        try{
+            walk(start);
+        }
+        finally{
+            this.queue = null;
+        }
+    }
+
+    private void walk(File start) throws IOException{
+        long begin = System.nanoTime();
+        seen.clear();
+        linkedDirectories.clear();
+        skipped = 0;
+        root = start.toPath().toRealPath();
+        Files.walkFileTree(root, new Visitor(root,root.relativize(root)));
+        elapsed = System.nanoTime()-begin;
+    }
+
+    private void add(Path path,BasicFileAttributes attributes,Path relative) throws IOException{
+        if(attributes.isDirectory() || !included(relative) || Files.isHidden(path) || !Files.isReadable(path)){
+            return;
+        }
+        String canonical = path.toString();
+        if(seen.add(canonical)){
+            CrawledFile file = new CrawledFile(canonical,new FileAttributes(path.toFile(),attributes));
+            if(queue != null){
+                queue.put(file);
+            }
+            else{
+                files.add(file);
+            }
+        }
+    }
+
+    private void follow(Path link,Path relative) throws IOException{
+        Path target = link.toRealPath();
+        BasicFileAttributes attributes = Files.readAttributes(target, BasicFileAttributes.class);
+        if(!attributes.isDirectory()){
+            add(target,attributes,relative);
+        }
+        else if(!target.startsWith(root) && !root.startsWith(target) && isNewLinkedDirectory(target)){
+            Files.walkFileTree(target, new Visitor(target,relative));
+        }
+    }
+
+    private boolean isNewLinkedDirectory(Path target){
+        for(Path walked:linkedDirectories){
+            if(target.startsWith(walked) || walked.startsWith(target)){
+                return false;
+            }
+        }
+        return linkedDirectories.add(target);
+    }
+
+    private boolean included(Path relative){
+        if(excluded(relative)){
+            return false;
+        }
+        if(includes.isEmpty()){
+            return true;
+        }
+        for(Glob glob:includes){
+            if(glob.matches(relative)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean excluded(Path relative){
+        for(Glob glob:excludes){
+            if(glob.matches(relative)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Number of files found by the last crawl.
+     */
+    public int getFiles(){
+        return seen.size();
+    }
+
+    /**
+     * Number of paths the last crawl could not read: unreadable directories,
+     * broken links, link loops.
+     */
+    public int getSkipped(){
+        return skipped;
+    }
+
+    public long getElapsedMillis(){
+        return elapsed/1000000;
+    }
+
+    public double getFilesPerSecond(){
+        return elapsed == 0 ? 0 : seen.size()*1e9/elapsed;
+    }
+
+    /**
+     * Walks one tree: the input root, or a directory reached through a link,
+     * whose paths are matched as if they were under the link.
+     */
+    private final class Visitor extends SimpleFileVisitor<Path> {
+
+        private final Path base;
+        private final Path prefix;
+
+        private Visitor(Path base,Path prefix){
+            this.base = base;
+            this.prefix = prefix;
+        }
+
+        private Path relative(Path path){
+            return prefix.resolve(base.relativize(path));
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+            if(!dir.equals(base) && excluded(relative(dir))){
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+            try{
+                if(attributes.isSymbolicLink()){
+                    follow(file,relative(file));
+                }
+                else{
+                    add(file,attributes,relative(file));
+                }
+            }
+            catch(InterruptedIOException ex){
+                throw ex;
+            }
+            catch(IOException ex){
+                skipped++;
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException ex) {
+            skipped++;
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException ex) {
+            if(ex != null){
+                skipped++;
+            }
+            return FileVisitResult.CONTINUE;
+        }
+    }
+
+    private static final class Glob {
+
+        private final PathMatcher matcher;
+        private final boolean name;
+
+        private Glob(FileSystem fileSystem,String pattern){
+            matcher = fileSystem.getPathMatcher("glob:"+pattern);
+            name = !pattern.contains("/");
+        }
+
+        private boolean matches(Path relative){
+            Path target = name ? relative.getFileName() : relative;
+            return target != null && matcher.matches(target);
+        }
+    }
+}
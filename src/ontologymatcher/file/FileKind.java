@@ -0,0 +1,44 @@
+
+package ontologymatcher.file;
+
+/**
+ * Broad type of a file as far as extraction is concerned, as recognised by
+ * the {@link FileClassifier} from its first bytes and its extension.
+ */
+public enum FileKind {
+
+    DOCUMENT("document"),
+    TEXT("text"),
+    IMAGE("image"),
+    AUDIO("audio"),
+    VIDEO("video"),
+    ARCHIVE("archive"),
+    EXECUTABLE("executable"),
+    DISK_IMAGE("disk-image"),
+    BINARY("binary");
+
+    private final String label;
+
+    private FileKind(String label){
+        this.label = label;
+    }
+
+    /**
+     * Name of the kind on the command line and in reports.
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @return the kind with the given label, or null if there is none
+     */
+    public static FileKind forLabel(String label){
+        for(FileKind kind:values()){
+            if(kind.label.equals(label)){
+                return kind;
+            }
+        }
+        return null;
+    }
+}
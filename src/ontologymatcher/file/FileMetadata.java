@@ -1,43 +1,27 @@
 
 package ontologymatcher.file;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
-import org.apache.tika.exception.TikaException;
-import org.apache.tika.metadata.Metadata;
-import org.apache.tika.parser.AutoDetectParser;
-import org.apache.tika.parser.ParseContext;
-import org.apache.tika.parser.Parser;
-import org.apache.tika.sax.BodyContentHandler;
-import org.xml.sax.ContentHandler;
-import org.xml.sax.SAXException;
-
-
+/**
+ * What the ontology needs to know about an indexed file. The extracted text
+ * is not kept, and the parent path, author and company are expected to be
+ * shared through a {@link ontologymatcher.utils.StringPool}, so that many 
+ * files of the same folder or author hold a single copy of each string.
+ */
 public class FileMetadata {
     
     private final String fileName;
     private final String fileParentPath;
     private final String author;
     private final String company;
-    private final String contents;
+    private final FileAttributes attributes;
     
-    public FileMetadata(File file) throws FileNotFoundException, IOException, SAXException, TikaException{
+    public FileMetadata(String fileName,String fileParentPath,String author,String company,FileAttributes attributes){
         
-        Metadata metadata = new Metadata();
-        InputStream input = new FileInputStream(file);
-        ContentHandler handler = new BodyContentHandler(10*1024*1024);
-          
-        Parser parser = new AutoDetectParser();        
-        ParseContext context = new ParseContext();
-        parser.parse(input, handler, metadata,context);
-        fileName = file.getName().replaceFirst("[.][^.]+$", "");
-        fileParentPath = file.getParent();
-        author = metadata.get(Metadata.AUTHOR);
-        company = metadata.get(Metadata.COMPANY);
-        contents = handler.toString();
+        this.fileName = fileName;
+        this.fileParentPath = fileParentPath;
+        this.author = author;
+        this.company = company;
+        this.attributes = attributes;
     }
 
     public String getFileName() {
@@ -57,8 +41,12 @@ public class FileMetadata {
         return fileParentPath;
     }
 
-    public String getContents() {
-        return contents;
+    /**
+     * Attributes read when the file was crawled, or null when the file was
+     * not part of the crawl.
+     */
+    public FileAttributes getAttributes() {
+        return attributes;
     }
     
     
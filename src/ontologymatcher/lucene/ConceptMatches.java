@@ -0,0 +1,37 @@
+
+package ontologymatcher.lucene;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+
+public class ConceptMatches {
+    
+    private final Map<String,ArrayList<String>> matches;
+    private final Map<String,ArrayList<String>> authorMatches;
+    private final Map<String,ArrayList<String>> orgMatches;
+    
+    public ConceptMatches(){
+        matches = new HashMap<>();
+        authorMatches = new HashMap<>();
+        orgMatches = new HashMap<>();
+    }
+
+    /**
+     * Files matched by filename or contents; a concept found in the contents
+     * of any file keeps only its content matches.
+     */
+    public Map<String, ArrayList<String>> getMatches() {
+        return matches;
+    }
+
+    public Map<String, ArrayList<String>> getAuthorMatches() {
+        return authorMatches;
+    }
+
+    public Map<String, ArrayList<String>> getOrgMatches() {
+        return orgMatches;
+    }
+    
+}
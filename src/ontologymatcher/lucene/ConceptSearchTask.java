@@ -0,0 +1,74 @@
+
+package ontologymatcher.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import org.apache.lucene.queryparser.classic.ParseException;
+
+/**
+ * Runs the four searches of DirectoryIndexer for a range of concepts on a
+ * fork/join pool. Every concept writes only its own slot of the result
+ * arrays, so the tasks share no mutable state and need no locking; the
+ * caller merges the slots in concept order once the pool is done.
+ */
+final class ConceptSearchTask extends RecursiveAction {
+    
+    private static final long serialVersionUID = 1L;
+    private static final int BATCH = 8;
+    
+    private final DirectoryIndexer indexer;
+    private final List<String> concepts;
+    private final List<ArrayList<String>> authors;
+    private final List<ArrayList<String>> organisations;
+    private final List<ArrayList<String>> filenames;
+    private final List<ArrayList<String>> contents;
+    private final int from;
+    private final int to;
+    
+    ConceptSearchTask(DirectoryIndexer indexer,List<String> concepts,List<ArrayList<String>> authors,
+            List<ArrayList<String>> organisations,List<ArrayList<String>> filenames,
+            List<ArrayList<String>> contents,int from,int to){
+        this.indexer = indexer;
+        this.concepts = concepts;
+        this.authors = authors;
+        this.organisations = organisations;
+        this.filenames = filenames;
+        this.contents = contents;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+        if(to-from <= BATCH){
+            try{
+                for(int i=from;i<to;i++){
+                    String concept = concepts.get(i);
+                    authors.set(i, indexer.searchAuthors(concept));
+                    organisations.set(i, indexer.searchOrganisations(concept));
+                    filenames.set(i, indexer.searchFilenames(concept));
+                    contents.set(i, indexer.searchContents(concept));
+                }
+            }
+            catch(IOException | ParseException ex){
+                throw new SearchFailure(ex);
+            }
+        }
+        else{
+            int middle = (from+to) >>> 1;
+            invokeAll(new ConceptSearchTask(indexer,concepts,authors,organisations,filenames,contents,from,middle),
+                      new ConceptSearchTask(indexer,concepts,authors,organisations,filenames,contents,middle,to));
+        }
+    }
+    
+    static final class SearchFailure extends RuntimeException {
+        
+        private static final long serialVersionUID = 1L;
+        
+        SearchFailure(Exception cause){
+            super(cause);
+        }
+    }
+}
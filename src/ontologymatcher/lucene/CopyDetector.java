@@ -0,0 +1,112 @@
+package ontologymatcher.lucene;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import ontologymatcher.file.CrawledFile;
+import ontologymatcher.utils.Utils;
+
+/**
+ * Finds the files that are byte for byte copies of a file seen earlier, with
+ * the same extension so that Tika treats them alike, while the files are
+ * still being crawled. Files are compared by size first, then by a
+ * fingerprint of their first and last bytes, and only files that still
+ * collide are hashed in full. Fingerprints and hashes are computed at most
+ * once per file, and only for files that share their size with another.
+ *
+ * The files are compared on a small pool of threads of their own, so that
+ * the reading and hashing of large files of the same size overlap. Every
+ * file is compared with all the earlier files of its size, in crawl order,
+ * so the first identical file found is always an original and the result
+ * does not depend on thread scheduling.
+ */
+final class CopyDetector implements Closeable {
+
+    private final Map<String,Member> groups;
+    private final ExecutorService executor;
+
+    CopyDetector(int threads){
+        groups = new HashMap<>();
+        executor = Executors.newFixedThreadPool(threads,new ThreadFactory(){
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task,"copy-detector");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts comparing a file with the earlier files of its size. Files must
+     * be given in crawl order, from a single thread.
+     * @return the canonical path of the first file seen with the same
+     * contents, or null if the file is an original; the future itself is null
+     * when no earlier file has the same size
+     */
+    Future<String> originalOf(CrawledFile file){
+        String key = file.getAttributes().getType()+"/"+file.getAttributes().getLength();
+        Member last = groups.get(key);
+        final Member member = new Member(file,last == null ? null : last.first);
+        groups.put(key, member);
+        if(last == null){
+            return null;
+        }
+        last.next = member;
+        return executor.submit(new Callable<String>(){
+            @Override
+            public String call() throws Exception {
+                for(Member earlier = member.first;earlier != member;earlier = earlier.next){
+                    if(earlier.fingerprint().equals(member.fingerprint()) && earlier.hash().equals(member.hash())){
+                        return earlier.file.getPath();
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void close(){
+        executor.shutdownNow();
+    }
+
+    /**
+     * A file in the list of the files of its size. The links are set before
+     * the comparison of a later file is submitted, which makes them visible
+     * to it.
+     */
+    private static final class Member {
+
+        private final CrawledFile file;
+        private final Member first;
+        private Member next;
+        private String fingerprint;
+        private String hash;
+
+        private Member(CrawledFile file,Member first){
+            this.file = file;
+            this.first = first == null ? this : first;
+        }
+
+        private synchronized String fingerprint() throws IOException{
+            if(fingerprint == null){
+                fingerprint = Utils.fingerprint(file.getFile(),file.getAttributes().getLength(),0);
+            }
+            return fingerprint;
+        }
+
+        private synchronized String hash() throws IOException{
+            if(hash == null){
+                hash = Utils.contentHash(file.getFile());
+            }
+            return hash;
+        }
+    }
+}
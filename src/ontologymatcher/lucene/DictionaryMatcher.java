@@ -0,0 +1,330 @@
+
+package ontologymatcher.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.similarities.DefaultSimilarity;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Matches all concepts against the index in one pass over its documents
+ * instead of running four queries per concept. The stemmed concept phrases
+ * are compiled into a {@link PhraseAutomaton} and the analyzed tokens of
+ * every document's filename, author, organisation and contents are streamed
+ * through it once.
+ *
+ * Hits are ranked the way the phrase queries of DirectoryIndexer rank them
+ * (DefaultSimilarity score, then document id, at most 10000 per query except
+ * for contents), so the resulting maps and the order of their file lists are
+ * the same. Content hits are extended to the copies of the file, as they are
+ * by DirectoryIndexer.
+ */
+final class DictionaryMatcher {
+
+    private static final String[] FIELDS = {"author","organisation","filename","contents"};
+    private static final int AUTHOR = 0;
+    private static final int ORGANISATION = 1;
+    private static final int FILENAME = 2;
+    private static final int CONTENTS = 3;
+    private static final int MAX_HITS = 10000;
+
+    private final IndexReader reader;
+    private final Analyzer analyzer;
+    private final boolean keywords;
+    private final List<String> concepts;
+    private final List<String[]> phrases;
+    private final List<Set<String>> keywordTokens;
+    private final PhraseAutomaton automaton;
+    private final DefaultSimilarity similarity;
+
+    private final Postings[][] hits;
+    private final int[] counts;
+    private final String[] paths;
+    private final Map<String,Set<String>> keywordsByPath;
+    private final Map<String,List<String>> copies;
+    private int[] touched;
+    private int touchedSize;
+
+    DictionaryMatcher(IndexReader reader,Analyzer analyzer,boolean keywords,
+            List<String> concepts,List<String[]> phrases,Map<String,List<String>> copies) throws IOException{
+        this.reader = reader;
+        this.analyzer = analyzer;
+        this.keywords = keywords;
+        this.concepts = concepts;
+        this.phrases = phrases;
+        this.copies = copies;
+        similarity = new DefaultSimilarity();
+        automaton = new PhraseAutomaton();
+        keywordTokens = new ArrayList<>();
+        for(int i=0;i<concepts.size();i++){
+            automaton.add(phrases.get(i), i);
+            Set<String> tokens = new HashSet<>();
+            for(String word:concepts.get(i).split("\\s+")){
+                tokens.addAll(analyze(word));
+            }
+            keywordTokens.add(tokens);
+        }
+        automaton.compile();
+        hits = new Postings[FIELDS.length][concepts.size()];
+        counts = new int[concepts.size()];
+        touched = new int[16];
+        paths = new String[reader.maxDoc()];
+        keywordsByPath = new HashMap<>();
+    }
+
+    ConceptMatches match() throws IOException{
+        scan();
+        ConceptMatches result = new ConceptMatches();
+        for(int i=0;i<concepts.size();i++){
+            String concept = concepts.get(i);
+            ArrayList<String> authorfiles = ranked(AUTHOR,i,MAX_HITS);
+            if(!authorfiles.isEmpty()){
+                result.getAuthorMatches().put(concept, authorfiles);
+            }
+            ArrayList<String> organisationfiles = ranked(ORGANISATION,i,MAX_HITS);
+            if(!organisationfiles.isEmpty()){
+                result.getOrgMatches().put(concept, organisationfiles);
+            }
+            ArrayList<String> filenamefiles = ranked(FILENAME,i,MAX_HITS);
+            if(!filenamefiles.isEmpty()){
+                result.getMatches().put(concept, filenamefiles);
+            }
+            if(keywords){
+                ArrayList<String> contentfiles = new ArrayList<>();
+                for(String path:ranked(CONTENTS,i,Integer.MAX_VALUE)){
+                    if(hasKeyword(path,keywordTokens.get(i))){
+                        contentfiles.add(path);
+                    }
+                }
+                if(!contentfiles.isEmpty()){
+                    result.getMatches().put(concept, DirectoryIndexer.withCopies(contentfiles,copies));
+                }
+            }
+        }
+        return result;
+    }
+
+    private void scan() throws IOException{
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        Set<String> storedFields = new HashSet<>(Arrays.asList("path","filename","author","organisation","hightfidfcontents"));
+        for(int doc=0;doc<reader.maxDoc();doc++){
+            if(liveDocs != null && !liveDocs.get(doc)){
+                continue;
+            }
+            Document document = reader.document(doc,storedFields);
+            String keywordText = document.get("hightfidfcontents");
+            if(keywordText != null){
+                if(keywords){
+                    Set<String> tokens = keywordsByPath.get(document.get("path"));
+                    if(tokens == null){
+                        tokens = new HashSet<>();
+                        keywordsByPath.put(document.get("path"), tokens);
+                    }
+                    tokens.addAll(analyze(keywordText));
+                }
+                continue;
+            }
+            paths[doc] = document.get("path");
+            for(int field=AUTHOR;field<=FILENAME;field++){
+                String text = document.get(FIELDS[field]);
+                if(text != null){
+                    scanText(FIELDS[field],text);
+                    collect(field,doc);
+                }
+            }
+            if(keywords){
+                Terms vector = reader.getTermVector(doc,"contents");
+                if(vector != null){
+                    scanVector(vector);
+                }
+                collect(CONTENTS,doc);
+            }
+        }
+    }
+
+    /**
+     * Streams the analyzed tokens of a stored field through the automaton. A
+     * position gap left by a removed stopword breaks phrases, as it does for
+     * phrase queries.
+     */
+    private void scanText(String field,String text) throws IOException{
+        try (TokenStream ts = analyzer.tokenStream(field, text)) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute increment = ts.addAttribute(PositionIncrementAttribute.class);
+            ts.reset();
+            int state = PhraseAutomaton.ROOT;
+            while (ts.incrementToken()){
+                if(increment.getPositionIncrement() > 1){
+                    state = PhraseAutomaton.ROOT;
+                }
+                state = automaton.step(state, term.toString());
+                count(state);
+            }
+            ts.end();
+        }
+    }
+
+    /**
+     * Rebuilds the token sequence of the contents from its term vector
+     * positions, as the text itself is not stored.
+     */
+    private void scanVector(Terms vector) throws IOException{
+        String[] tokens = new String[16];
+        int length = 0;
+        TermsEnum termsEnum = vector.iterator(null);
+        DocsAndPositionsEnum positions = null;
+        BytesRef term;
+        while ((term = termsEnum.next()) != null) {
+            String token = term.utf8ToString();
+            positions = termsEnum.docsAndPositions(null, positions);
+            positions.nextDoc();
+            for(int i=0;i<positions.freq();i++){
+                int position = positions.nextPosition();
+                if(position >= tokens.length){
+                    tokens = Arrays.copyOf(tokens, Math.max(position+1, tokens.length*2));
+                }
+                tokens[position] = token;
+                length = Math.max(length, position+1);
+            }
+        }
+        int state = PhraseAutomaton.ROOT;
+        for(int i=0;i<length;i++){
+            if(tokens[i] == null){
+                state = PhraseAutomaton.ROOT;
+            }
+            else{
+                state = automaton.step(state, tokens[i]);
+                count(state);
+            }
+        }
+    }
+
+    private void count(int state){
+        for(int id:automaton.matches(state)){
+            if(counts[id] == 0){
+                touched = ArrayUtil.grow(touched, touchedSize+1);
+                touched[touchedSize++] = id;
+            }
+            counts[id]++;
+        }
+    }
+
+    private void collect(int field,int doc){
+        for(int i=0;i<touchedSize;i++){
+            int id = touched[i];
+            if(hits[field][id] == null){
+                hits[field][id] = new Postings();
+            }
+            hits[field][id].add(doc, counts[id]);
+            counts[id] = 0;
+        }
+        touchedSize = 0;
+    }
+
+    /**
+     * Orders the hits of one concept in one field by the score the phrase
+     * query would give them: tf(freq) * idf * idf * queryNorm * norm(doc),
+     * computed in the same order of float operations as TFIDFSimilarity.
+     */
+    private ArrayList<String> ranked(int field,int concept,int limit) throws IOException{
+        ArrayList<String> results = new ArrayList<>();
+        Postings postings = hits[field][concept];
+        if(postings == null){
+            return results;
+        }
+        float idf = 0.0f;
+        for(String term:phrases.get(concept)){
+            idf += similarity.idf(reader.docFreq(new Term(FIELDS[field],term)), reader.maxDoc());
+        }
+        float queryWeight = idf;
+        float queryNorm = similarity.queryNorm(queryWeight * queryWeight);
+        if(Float.isInfinite(queryNorm) || Float.isNaN(queryNorm)){
+            queryNorm = 1.0f;
+        }
+        queryWeight *= queryNorm;
+        float value = queryWeight * idf;
+        NumericDocValues norms = MultiDocValues.getNormValues(reader, FIELDS[field]);
+        final float[] scores = new float[postings.size];
+        Integer[] order = new Integer[postings.size];
+        for(int i=0;i<postings.size;i++){
+            float raw = similarity.tf(postings.freqs[i]) * value;
+            scores[i] = norms == null ? raw : raw * similarity.decodeNormValue(norms.get(postings.docs[i]));
+            order[i] = i;
+        }
+        final int[] docs = postings.docs;
+        Arrays.sort(order, new Comparator<Integer>(){
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byScore = Float.compare(scores[b], scores[a]);
+                return byScore != 0 ? byScore : Integer.compare(docs[a], docs[b]);
+            }
+        });
+        for(int i=0;i<order.length && i<limit;i++){
+            results.add(paths[docs[order[i]]]);
+        }
+        return results;
+    }
+
+    private boolean hasKeyword(String path,Set<String> tokens){
+        Set<String> fileKeywords = keywordsByPath.get(path);
+        if(fileKeywords == null){
+            return false;
+        }
+        for(String token:tokens){
+            if(fileKeywords.contains(token)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<String> analyze(String text) throws IOException{
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream ts = analyzer.tokenStream("", text)) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()){
+                tokens.add(term.toString());
+            }
+            ts.end();
+        }
+        return tokens;
+    }
+
+    private static final class Postings {
+
+        private int[] docs = new int[4];
+        private int[] freqs = new int[4];
+        private int size;
+
+        private void add(int doc,int freq){
+            docs = ArrayUtil.grow(docs, size+1);
+            freqs = ArrayUtil.grow(freqs, size+1);
+            docs[size] = doc;
+            freqs[size] = freq;
+            size++;
+        }
+    }
+}
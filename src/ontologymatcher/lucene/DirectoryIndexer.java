@@ -1,293 +1,1355 @@
 
 package ontologymatcher.lucene;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.Reader;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import ontologymatcher.config.MatcherConfig;
+import ontologymatcher.file.CrawledFile;
+import ontologymatcher.file.ExtractedFile;
+import ontologymatcher.file.ExtractionCache;
+import ontologymatcher.file.ExtractionMode;
+import ontologymatcher.file.ExtractionService;
+import ontologymatcher.file.FileAttributes;
+import ontologymatcher.file.FileClassifier;
+import ontologymatcher.file.FileCrawler;
 import ontologymatcher.file.FileMetadata;
+import ontologymatcher.utils.StageQueue;
+import ontologymatcher.utils.StringPool;
 import ontologymatcher.utils.Utils;
-import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.en.EnglishAnalyzer;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.miscellaneous.LimitTokenCountAnalyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.DocValues;
 import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
-import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.FieldValueFilter;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.PhraseQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.SimpleCollector;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.similarities.DefaultSimilarity;
 import org.apache.lucene.search.similarities.TFIDFSimilarity;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.FixedBitSet;
 import org.apache.tika.exception.TikaException;
 import org.xml.sax.SAXException;
 
 
-public final class DirectoryIndexer {
+public final class DirectoryIndexer implements Closeable {
     
     private final Directory directory;
-    private final IndexWriter iwriter;
     private final Map<String,FileMetadata> fileMeta;
+    private final Map<String,List<String>> copies;
+    private final int workers;
+    private final boolean hashing;
+    private final boolean keywords;
+    private final boolean deduplication;
+    private final int contentTokens;
+    private final long parseTimeout;
+    private final long maxBytes;
+    private ExtractionCache cache;
+    private final FileCrawler crawler;
+    private final FileClassifier classifier;
+    private final FileManifest manifest;
+    private final StringPool strings;
+    private final SearcherManager searcherManager;
+    private final Stemmer stemmer;
+    private IndexWriter iwriter;
+    private volatile KeywordJoin keywordJoin;
+    private volatile Vocabulary vocabulary;
+    private final AtomicInteger conceptQueries = new AtomicInteger();
+    private final AtomicInteger skippedQueries = new AtomicInteger();
+    private int timedOutFiles;
+    private int overBudgetFiles;
+    private final IndexSchema schema;
+    private int indexedFiles;
+    private long indexedBytes;
+    private final long indexingMillis;
+    private final long indexSize;
+    
+    private static final String ROOT_KEY = "root";
+    private static final String KEYWORDS_KEY = "keywords";
+    private static final String FORMAT_KEY = "format";
+    private static final String FORMAT = "2";
+    private static final String SCHEMA_KEY = "schema";
+    private static final int KEYWORD_POSTINGS = 1 << 21;
+    private static final double KEYWORD_REFRESH_RATIO = 0.1;
+    private static final String MANIFEST = "manifest";
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final String KEYWORDS_OF_FIELD = "keywordsof";
+    private static final FieldType CONTENTS_TYPE = new FieldType();
+    private static final FieldType MATCH_CONTENTS_TYPE = new FieldType();
+    private static final String COPY_FIELD = "copyof";
+    private static final Set<String> METADATA_FIELDS = new HashSet<>(Arrays.asList("path","filename","author","organisation",COPY_FIELD));
+    
+    static{
+        CONTENTS_TYPE.setStoreTermVectors(true);
+        CONTENTS_TYPE.setStoreTermVectorPositions(true);
+        CONTENTS_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+        CONTENTS_TYPE.freeze();
+        MATCH_CONTENTS_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+        MATCH_CONTENTS_TYPE.freeze();
+    }
     
     public DirectoryIndexer(File file) throws IOException, FileNotFoundException, SAXException, TikaException{
+        this(file,new MatcherConfig());
+    }
+    
+    public DirectoryIndexer(File file,MatcherConfig config) throws IOException, FileNotFoundException, SAXException, TikaException{
         
-        directory= new RAMDirectory();
-        EnglishAnalyzer analyzer=new EnglishAnalyzer();
-        IndexWriterConfig config=new IndexWriterConfig(analyzer);
-        iwriter = new IndexWriter(directory,config);
-        fileMeta =new HashMap<>();
-        indexDirectory(file);
+        long start = System.nanoTime();
+        workers = config.getExtractionWorkers();
+        stemmer = new Stemmer();
+        hashing = config.isContentHashing();
+        schema = config.getSchema();
+        keywords = config.isKeywords() && schema.hasContents();
+        deduplication = config.isDeduplication();
+        contentTokens = config.getContentTokens();
+        parseTimeout = config.getParseTimeout()*1000L;
+        maxBytes = config.getMaxFileSize()*1024L*1024L;
+        cache = config.getCacheDirectory() == null ? null :
+                ExtractionCache.open(new File(config.getCacheDirectory()),config.getCacheSize()*1024L*1024L);
+        fileMeta =new ConcurrentHashMap<>();
+        copies = new HashMap<>();
+        strings = new StringPool();
+        crawler = new FileCrawler(config.getIncludes(),config.getExcludes());
+        classifier = new FileClassifier(maxBytes,config.getSkippedKinds(),schema.hasContents());
+        String root = file.getCanonicalPath();
+        try{
+            if(config.getIndexDirectory() == null){
+                directory= new RAMDirectory();
+                manifest = null;
+                iwriter = openWriter(IndexWriterConfig.OpenMode.CREATE);
+                indexDirectory(file);
+                iwriter.close();
+                tfidf(null);
+            }
+            else{
+                File indexDirectory = new File(config.getIndexDirectory());
+                directory= new MMapDirectory(indexDirectory.toPath());
+                manifest = FileManifest.load(new File(indexDirectory,MANIFEST));
+                if(manifest.isLoaded() && isIndexOf(root)){
+                    List<CrawledFile> files = crawler.crawl(file);
+                    update(files);
+                    loadFileMeta(files);
+                }
+                else{
+                    manifest.clear();
+                    iwriter = openWriter(IndexWriterConfig.OpenMode.CREATE);
+                    indexDirectory(file);
+                    iwriter.close();
+                    tfidf(null);
+                }
+                markComplete(root);
+                manifest.save();
+            }
+        }
+        finally{
+            // lets other runs sharing the cache go on while this one matches
+            if(cache != null){
+                cache.close();
+                cache = null;
+            }
+        }
+        indexingMillis = (System.nanoTime()-start)/1000000;
+        indexSize = sizeOf(directory);
+        searcherManager = new SearcherManager(directory,null);
+    }
+    
+    private static long sizeOf(Directory directory) throws IOException{
+        long size = 0;
+        for(String name:directory.listAll()){
+            size += directory.fileLength(name);
+        }
+        return size;
+    }
+    
+    private IndexWriter openWriter(IndexWriterConfig.OpenMode mode) throws IOException{
+        Analyzer contents=new LimitTokenCountAnalyzer(new EnglishAnalyzer(),contentTokens);
+        Analyzer analyzer=new PerFieldAnalyzerWrapper(new EnglishAnalyzer(),Collections.singletonMap("contents",contents));
+        IndexWriterConfig iconfig=new IndexWriterConfig(analyzer);
+        iconfig.setOpenMode(mode);
+        return new IndexWriter(directory,iconfig);
+    }
+    
+    /**
+     * Tells whether the directory already holds a finished index of the given
+     * input root, written by an earlier run.
+     */
+    private boolean isIndexOf(String root) throws IOException{
+        if(!DirectoryReader.indexExists(directory)){
+            return false;
+        }
+        try (DirectoryReader ireader = DirectoryReader.open(directory)) {
+            Map<String,String> commitData = ireader.getIndexCommit().getUserData();
+            return root.equals(commitData.get(ROOT_KEY))
+                    && String.valueOf(keywords).equals(commitData.get(KEYWORDS_KEY))
+                    && FORMAT.equals(commitData.get(FORMAT_KEY))
+                    && schema.getLabel().equals(commitData.get(SCHEMA_KEY));
+        }
+    }
+    
+    private void markComplete(String root) throws IOException{
+        try (IndexWriter writer = openWriter(IndexWriterConfig.OpenMode.APPEND)) {
+            Map<String,String> commitData = new HashMap<>();
+            commitData.put(ROOT_KEY, root);
+            commitData.put(KEYWORDS_KEY, String.valueOf(keywords));
+            commitData.put(FORMAT_KEY, FORMAT);
+            commitData.put(SCHEMA_KEY, schema.getLabel());
+            writer.setCommitData(commitData);
+            writer.commit();
+        }
+    }
+    
+    /**
+     * Brings an existing index up to date with the input tree: files missing
+     * from the manifest or whose size or modification time changed are 
+     * extracted and indexed again, documents of deleted files are removed,
+     * and the keywords of the re-indexed documents are recomputed.
+     *
+     * The documents of re-indexed files come after those of the unchanged
+     * ones, so hits, and the numbering of the individuals created from them,
+     * can come in another order than with a fresh index of the same tree.
+     * The keywords of unchanged files keep the idf they were computed with,
+     * unless more than a tenth of the files changed or were deleted, in
+     * which case the keywords of every file are recomputed.
+     */
+    private void update(List<CrawledFile> files) throws IOException, FileNotFoundException, SAXException, TikaException{
+        ArrayList<CrawledFile> changed = new ArrayList<>();
+        Set<String> changedPaths = new HashSet<>();
+        Set<String> deleted = manifest.paths();
+        int indexed = deleted.size();
+        for(CrawledFile file:files){
+            String path = file.getPath();
+            deleted.remove(path);
+            if(!isUnchanged(file)){
+                changed.add(file);
+                changedPaths.add(path);
+            }
+        }
+        Set<String> copyPaths = copiesOf(changedPaths,deleted);
+        for(CrawledFile file:files){
+            if(copyPaths.contains(file.getPath())){
+                changed.add(file);
+                changedPaths.add(file.getPath());
+            }
+        }
+        StageQueue<CrawledFile> queue = new StageQueue<>(Math.max(changed.size(),1));
+        for(CrawledFile file:changed){
+            queue.put(file);
+        }
+        queue.finish();
+        iwriter = openWriter(IndexWriterConfig.OpenMode.APPEND);
+        for(String path:deleted){
+            iwriter.deleteDocuments(new Term("key",path));
+            manifest.remove(path);
+        }
+        for(String path:changedPaths){
+            iwriter.deleteDocuments(new Term("key",path));
+        }
+        boolean refresh = keywords && changedPaths.size()+deleted.size() > indexed*KEYWORD_REFRESH_RATIO;
+        if(refresh){
+            iwriter.deleteDocuments(new ConstantScoreQuery(new FieldValueFilter(KEYWORDS_OF_FIELD)));
+        }
+        indexFiles(queue);
+        if(refresh){
+            // the term statistics still count deleted documents until merged
+            iwriter.forceMergeDeletes();
+        }
         iwriter.close();
-        tfidf();
+        if(refresh){
+            tfidf(null);
+        }
+        else if(!changedPaths.isEmpty()){
+            tfidf(changedPaths);
+        }
+    }
+    
+    /**
+     * Files of the index that are copies of a changed or deleted file. They
+     * have no contents of their own, so they are indexed again with it.
+     */
+    private Set<String> copiesOf(Set<String> changedPaths,Set<String> deleted) throws IOException{
+        Set<String> result = new HashSet<>();
+        try (DirectoryReader ireader = DirectoryReader.open(directory)) {
+            Bits liveDocs = MultiFields.getLiveDocs(ireader);
+            Set<String> fields = new HashSet<>(Arrays.asList("path",COPY_FIELD));
+            for(int i=0;i<ireader.maxDoc();i++){
+                if(liveDocs != null && !liveDocs.get(i)){
+                    continue;
+                }
+                Document doc=ireader.document(i,fields);
+                String original=doc.get(COPY_FIELD);
+                String path=doc.get("path");
+                if(original != null && (changedPaths.contains(original) || deleted.contains(original))
+                        && !changedPaths.contains(path) && !deleted.contains(path)){
+                    result.add(path);
+                }
+            }
+        }
+        return result;
+    }
+    
+    private boolean isUnchanged(CrawledFile file) throws IOException{
+        FileManifest.Entry entry = manifest.get(file.getPath());
+        FileAttributes attributes = file.getAttributes();
+        if(entry == null || entry.getSize() != attributes.getLength()){
+            return false;
+        }
+        if(entry.getModified() == attributes.getLastModified()){
+            return true;
+        }
+        if(hashing && entry.getHash() != null && entry.getHash().equals(Utils.contentHash(file.getFile()))){
+            manifest.put(file.getPath(), new FileManifest.Entry(entry.getSize(),attributes.getLastModified(),entry.getHash()));
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Rebuilds the per file metadata from the stored fields of the index and
+     * the attributes of the crawled files.
+     */
+    private void loadFileMeta(List<CrawledFile> files) throws IOException{
+        Map<String,FileAttributes> attributes = new HashMap<>();
+        for(CrawledFile file:files){
+            attributes.put(file.getPath(), file.getAttributes());
+        }
+        fileMeta.clear();
+        copies.clear();
+        try (DirectoryReader ireader = DirectoryReader.open(directory)) {
+            Bits liveDocs = MultiFields.getLiveDocs(ireader);
+            for(int i=0;i<ireader.maxDoc();i++){
+                if(liveDocs != null && !liveDocs.get(i)){
+                    continue;
+                }
+                Document doc=ireader.document(i,METADATA_FIELDS);
+                String filename=doc.get("filename");
+                if(filename == null){
+                    continue;
+                }
+                String path=doc.get("path");
+                fileMeta.put(path, new FileMetadata(filename,strings.intern(new File(path).getParent()),
+                        strings.intern(doc.get("author")),strings.intern(doc.get("organisation")),attributes.get(path)));
+                if(doc.get(COPY_FIELD) != null){
+                    addCopy(doc.get(COPY_FIELD),path);
+                }
+            }
+        }
     }
     
     
     public void indexDirectory(File path) throws IOException, FileNotFoundException, SAXException, TikaException{
-        if(path.isDirectory()){
-           if( path.list()!=null){
-              File[] files=path.listFiles();
-              for (File file : files){
-                indexDirectory(file); 
-              }
-           }
-           else{
-               return;
-           }
-       }
-       else{    
-           indexFile(path);
-       }
-    }
-    
-    private void indexFile(File file) throws IOException, FileNotFoundException, SAXException, TikaException{
+        indexFiles(crawl(path));
+    }
+    
+    /**
+     * Builds the index on a background thread, so that it overlaps with what 
+     * the caller does next, such as loading the ontology.
+     * @see #join(Future)
+     */
+    public static Future<DirectoryIndexer> start(final File file,final MatcherConfig config){
+        FutureTask<DirectoryIndexer> task = new FutureTask<>(new Callable<DirectoryIndexer>(){
+            @Override
+            public DirectoryIndexer call() throws Exception {
+                return new DirectoryIndexer(file,config);
+            }
+        });
+        startStage("indexer",task);
+        return task;
+    }
+    
+    /**
+     * Waits for an index started by {@link #start(File, MatcherConfig)}.
+     */
+    public static DirectoryIndexer join(Future<DirectoryIndexer> indexing) throws IOException, SAXException, TikaException{
+        return await(indexing);
+    }
+    
+    private static void startStage(String name,Runnable stage){
+        Thread thread = new Thread(stage,name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * First stage of the pipeline: walks the tree and reads the attributes of
+     * every file on a thread of its own.
+     */
+    private StageQueue<CrawledFile> crawl(final File root){
+        final StageQueue<CrawledFile> crawled = new StageQueue<>(QUEUE_CAPACITY);
+        startStage("crawler",new Runnable(){
+            @Override
+            public void run() {
+                try{
+                    crawler.crawl(root,crawled);
+                    crawled.finish();
+                }
+                catch(IOException | RuntimeException ex){
+                    crawled.fail(ex);
+                }
+            }
+        });
+        return crawled;
+    }
+    
+    /**
+     * Second stage: decides from the first bytes of every crawled file 
+     * whether it is parsed, and starts looking for the copies among the files
+     * that are, on the threads of the detector.
+     */
+    private StageQueue<Candidate> classify(final StageQueue<CrawledFile> crawled,final CopyDetector detector){
+        final StageQueue<Candidate> candidates = new StageQueue<>(QUEUE_CAPACITY);
+        startStage("classifier",new Runnable(){
+            @Override
+            public void run() {
+                try{
+                    for(CrawledFile file = crawled.take();file != null;file = crawled.take()){
+                        ExtractionMode mode = classifier.classify(file);
+                        Future<String> original = detector == null || mode == ExtractionMode.SKIP ? null : detector.originalOf(file);
+                        candidates.put(new Candidate(file,mode,original));
+                    }
+                    candidates.finish();
+                }
+                catch(IOException | RuntimeException ex){
+                    crawled.cancel();
+                    candidates.fail(ex);
+                }
+            }
+        });
+        return candidates;
+    }
+    
+    /**
+     * Last stages: parses the files on a pool of worker threads but adds their
+     * documents in crawl order, so document ids and therefore the order of 
+     * search hits do not depend on thread scheduling. The text of a file is 
+     * streamed from its parser into the writer, and at most a few files per 
+     * worker are parsed ahead of the writer, each of them keeping a small
+     * buffer in memory and spilling the rest of its text to disk, so memory
+     * stays bounded without the parses waiting for the writer. The writer
+     * only waits for the earlier stages when no parse is pending, and in
+     * particular does not wait for a file to be compared with its possible
+     * originals while it has a document to add.
+     */
+    private void indexFiles(StageQueue<CrawledFile> crawled) throws IOException, SAXException, TikaException{
+        ExtractionService service = new ExtractionService(workers,parseTimeout,maxBytes,cache);
+        CopyDetector detector = deduplication ? new CopyDetector(workers) : null;
+        StageQueue<Candidate> candidates = classify(crawled,detector);
+        int window = workers*4;
+        ArrayDeque<Extraction> pending = new ArrayDeque<>();
+        try{
+            boolean more = true;
+            Candidate next = null;
+            while(more || next != null || !pending.isEmpty()){
+                while(pending.size() < window){
+                    if(next == null){
+                        if(!more || (!pending.isEmpty() && !candidates.isReady())){
+                            break;
+                        }
+                        next = candidates.take();
+                        if(next == null){
+                            more = false;
+                            break;
+                        }
+                    }
+                    if(!pending.isEmpty() && !next.isCompared()){
+                        break;
+                    }
+                    pending.add(extract(next,service));
+                    next = null;
+                }
+                if(!pending.isEmpty()){
+                    addDocument(pending.poll(),service);
+                }
+            }
+        }
+        finally{
+            candidates.cancel();
+            crawled.cancel();
+            if(detector != null){
+                detector.close();
+            }
+            for(Extraction extraction:pending){
+                if(extraction.extracted != null){
+                    extraction.extracted.close();
+                }
+            }
+            service.close();
+            timedOutFiles += service.getTimedOutFiles();
+            overBudgetFiles += service.getOverBudgetFiles();
+        }
+        if(cache != null){
+            cache.save();
+        }
+    }
+    
+    /**
+     * A crawled file with how much of it is extracted and the comparison
+     * telling the canonical path of the file it is a copy of, if any.
+     */
+    private static final class Candidate {
+        
+        private final CrawledFile file;
+        private final ExtractionMode mode;
+        private final Future<String> original;
+        
+        private Candidate(CrawledFile file,ExtractionMode mode,Future<String> original){
+            this.file = file;
+            this.mode = mode;
+            this.original = original;
+        }
+        
+        private boolean isCompared(){
+            return original == null || original.isDone();
+        }
+    }
+    
+    private static <K,V> void append(Map<K,List<V>> table,K key,V value){
+        List<V> list = table.get(key);
+        if(list == null){
+            list = new ArrayList<>();
+            table.put(key, list);
+        }
+        list.add(value);
+    }
+    
+    private void addCopy(String original,String path){
+        append(copies,original,path);
+    }
+    
+    /**
+     * Adds the copies of every path right after it.
+     */
+    static ArrayList<String> withCopies(List<String> paths,Map<String,List<String>> copies){
+        ArrayList<String> result = new ArrayList<>();
+        for(String path:paths){
+            result.add(path);
+            List<String> pathCopies = copies.get(path);
+            if(pathCopies != null){
+                result.addAll(pathCopies);
+            }
+        }
+        return result;
+    }
+    
+    private static <T> T await(Future<T> future) throws IOException, SAXException, TikaException{
+        try{
+            return future.get();
+        }
+        catch(InterruptedException ex){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting file contents", ex);
+        }
+        catch(ExecutionException ex){
+            Throwable cause = ex.getCause();
+            if(cause instanceof IOException){
+                throw (IOException)cause;
+            }
+            if(cause instanceof SAXException){
+                throw (SAXException)cause;
+            }
+            if(cause instanceof TikaException){
+                throw (TikaException)cause;
+            }
+            if(cause instanceof RuntimeException){
+                throw (RuntimeException)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+    
+    /**
+     * Starts parsing a file, unless its comparison, which is waited for,
+     * finds it is a copy of an earlier file. Its content hash, when needed,
+     * is computed on the extraction threads as well.
+     */
+    private Extraction extract(Candidate candidate,ExtractionService service) throws IOException, SAXException, TikaException{
         
-        if(file.isHidden() || !file.canRead() || !file.exists()){
-           return;
-        }
-        FileMetadata meta=new FileMetadata(file);
-        String path = file.getCanonicalPath();
-        fileMeta.put(path, meta);
-         Document document=new Document();
-         document.add(new Field("path",path,TextField.TYPE_STORED));
-         document.add(new Field("filename",meta.getFileName(),TextField.TYPE_STORED));
-         String author=meta.getAuthor();
-         if(author!=null && !author.matches("^\\s*$") && !author.equals("")){
-             document.add(new Field("author",author,TextField.TYPE_STORED));
+        CrawledFile crawled = candidate.file;
+        final File file = crawled.getFile();
+        long size = crawled.getAttributes().getLength();
+        long modified = crawled.getAttributes().getLastModified();
+        Future<String> hash = null;
+        if(manifest != null && hashing){
+            hash = service.submit(new Callable<String>(){
+                @Override
+                public String call() throws Exception {
+                    return Utils.contentHash(file);
+                }
+            });
+        }
+        String original = candidate.original == null ? null : await(candidate.original);
+        if(original != null){
+            return new Extraction(crawled,candidate.mode,null,original,hash);
+        }
+        ExtractedFile extracted = service.extract(file,size,modified,candidate.mode);
+        return new Extraction(crawled,candidate.mode,extracted,null,hash);
+    }
+    
+    private void addDocument(Extraction extraction,ExtractionService service) throws IOException, SAXException, TikaException{
+        
+         if(extraction.original != null){
+             addCopy(extraction);
+             return;
          }
-         String organisation=meta.getCompany();
-         if(organisation!=null && !organisation.matches("^\\s*$") && !organisation.equals("")){
-             document.add(new Field("organisation",organisation,TextField.TYPE_STORED));
+         ExtractedFile extracted=extraction.extracted;
+         List<IndexableField> fields=new ArrayList<>();
+         fields.add(new StringField("key",extraction.path,Field.Store.NO));
+         addPath(fields,extraction.path);
+         fields.add(new Field("filename",extracted.getFileName(),TextField.TYPE_STORED));
+         Reader contents=extracted.getContents();
+         Field contentsField=null;
+         if(contents!=null){
+             contentsField=new Field("contents",contents,schema.hasTermVectors() ? CONTENTS_TYPE : MATCH_CONTENTS_TYPE);
+             fields.add(contentsField);
          }
-         if(Utils.isDocument(file)){
-            FieldType fieldType = new FieldType();
-            fieldType.setStoreTermVectors(true);
-            fieldType.setStoreTermVectorPositions(true);
-            fieldType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
-            fieldType.setStored(true);
-            String contents=meta.getContents();
-            if(contents!=null){                
-                     document.add(new Field("contents",contents,fieldType));      
-            }
+         try{
+             iwriter.addDocument(new StreamedDocument(fields,extracted));
          }
-         iwriter.addDocument(document);
+         catch(StreamedDocument.ExtractionFailure ex){
+             extracted.await();
+             throw ex;
+         }
+         catch(IOException ex){
+             if(extracted.isCacheFailed()){
+                 // the cached text was damaged and the writer dropped the
+                 // document: parse the file now that its entry is gone
+                 CrawledFile crawled = extraction.file;
+                 addDocument(new Extraction(crawled,extraction.mode,service.extract(crawled.getFile(),
+                         extraction.attributes.getLength(),extraction.attributes.getLastModified(),extraction.mode),
+                         null,extraction.hash),service);
+                 return;
+             }
+             if(!extracted.isExpired()){
+                 throw ex;
+             }
+             // the parse was cut short while its text was being indexed and
+             // the writer dropped the document: add it again without contents
+             extracted.await();
+             fields.remove(contentsField);
+             StreamedDocument.addMetadata(fields,extracted.getAuthor(),extracted.getCompany());
+             iwriter.addDocument(fields);
+         }
+         finally{
+             extracted.close();
+         }
+         indexedFiles++;
+         indexedBytes += extraction.attributes.getLength();
+         fileMeta.put(extraction.path, new FileMetadata(extracted.getFileName(),strings.intern(extracted.getFileParentPath()),
+                strings.intern(extracted.getAuthor()),strings.intern(extracted.getCompany()),extraction.attributes));
+         putManifestEntry(extraction);
     }
     
-    private void tfidf() throws IOException{
-        try (DirectoryReader ireader = DirectoryReader.open(directory)) {
-            IndexSearcher isearcher=new IndexSearcher(ireader);
-            for(int i=0;i<ireader.maxDoc();i++){
-                int j=0;
-                float totalTfIdf=0;
-                float maxTfIdf=0;
-                HashMap<String,Float> contents=new HashMap<>();
-                Terms terms = ireader.getTermVector(i,"contents");
-                if (terms != null && terms.size() > 0){
-                    TFIDFSimilarity tfidfSIM = new DefaultSimilarity();
-                    TermsEnum termsEnum = terms.iterator(null); // access the terms for this field
-                    BytesRef term = null;
-                    while ((term = termsEnum.next()) != null) {
-                        DocsEnum docsEnum = termsEnum.docs(null, null); // enumerate through documents, in this case only one
-                        int docIdEnum;
-                        while ((docIdEnum = docsEnum.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
-                            org.apache.lucene.index.Term termInstance = new org.apache.lucene.index.Term("contents", term);
-                            long indexDf = ireader.docFreq(termInstance);
-                            float tf = tfidfSIM.tf(docsEnum.freq());
-                            float idf = tfidfSIM.idf(indexDf, ireader.getDocCount("contents"));
-                            float tfidf=tf*idf;
-                            if(tfidf>maxTfIdf){
-                                maxTfIdf=tfidf;
-                            }
-                            totalTfIdf=totalTfIdf+tfidf;
-                            j++;
-                            contents.put(term.utf8ToString(), tfidf);
+    /**
+     * Indexes a copy of an already indexed file under its own path and name
+     * with the metadata of the original, but without contents: content hits
+     * on the original are extended to its copies instead.
+     */
+    private void addCopy(Extraction extraction) throws IOException, SAXException, TikaException{
+        
+         FileMetadata original=fileMeta.get(extraction.original);
+         File file=new File(extraction.path);
+         String filename=Utils.getBaseName(file);
+         List<IndexableField> fields=new ArrayList<>();
+         fields.add(new StringField("key",extraction.path,Field.Store.NO));
+         addPath(fields,extraction.path);
+         fields.add(new Field("filename",filename,TextField.TYPE_STORED));
+         fields.add(new StoredField(COPY_FIELD,extraction.original));
+         StreamedDocument.addMetadata(fields,original.getAuthor(),original.getCompany());
+         iwriter.addDocument(fields);
+         indexedFiles++;
+         indexedBytes += extraction.attributes.getLength();
+         fileMeta.put(extraction.path, new FileMetadata(filename,strings.intern(file.getParent()),
+                original.getAuthor(),original.getCompany(),extraction.attributes));
+         addCopy(extraction.original,extraction.path);
+         putManifestEntry(extraction);
+    }
+    
+    /**
+     * Adds the path of a file document: stored, as doc values, and tokenized
+     * only in the full schema.
+     */
+    private void addPath(List<IndexableField> fields,String path){
+        if(schema.hasTermVectors()){
+            fields.add(new Field("path",path,TextField.TYPE_STORED));
+        }
+        else{
+            fields.add(new StoredField("path",path));
+        }
+        fields.add(new SortedDocValuesField("path",new BytesRef(path)));
+    }
+    
+    private void putManifestEntry(Extraction extraction) throws IOException, SAXException, TikaException{
+         if(manifest != null){
+             String hash = extraction.hash == null ? null : await(extraction.hash);
+             manifest.put(extraction.path, new FileManifest.Entry(extraction.attributes.getLength(),extraction.attributes.getLastModified(),hash));
+         }
+    }
+    
+    private static final class Extraction {
+        
+        private final CrawledFile file;
+        private final ExtractionMode mode;
+        private final String path;
+        private final FileAttributes attributes;
+        private final ExtractedFile extracted;
+        private final String original;
+        private final Future<String> hash;
+        
+        private Extraction(CrawledFile file,ExtractionMode mode,ExtractedFile extracted,String original,Future<String> hash){
+            this.file = file;
+            this.mode = mode;
+            this.path = file.getPath();
+            this.attributes = file.getAttributes();
+            this.extracted = extracted;
+            this.original = original;
+            this.hash = hash;
+        }
+    }
+    
+    /**
+     * Adds a keyword document holding the high tf-idf terms of every file 
+     * document, or only of the documents of the given paths when not null.
+     * The document frequency of every contents term is read once from the
+     * term dictionary, and all keyword documents go through a single writer.
+     * The terms of a document are read from its term vector, or, when the
+     * schema keeps none, from the postings of every term, advanced only to
+     * the documents that need keywords and inverted a block of them at a
+     * time. Blocks are sized from the mean number of terms per document, so
+     * that a block holds about KEYWORD_POSTINGS postings.
+     */
+    private void tfidf(Set<String> paths) throws IOException{
+        if(!keywords){
+            return;
+        }
+        try (DirectoryReader ireader = DirectoryReader.open(directory);
+             IndexWriter writer = openWriter(IndexWriterConfig.OpenMode.APPEND)) {
+            TFIDFSimilarity tfidfSIM = new DefaultSimilarity();
+            BytesRefHash termIds = new BytesRefHash();
+            float[] idfs = new float[16];
+            Terms allTerms = MultiFields.getTerms(ireader, "contents");
+            if(allTerms != null){
+                int docCount = ireader.getDocCount("contents");
+                TermsEnum termsEnum = allTerms.iterator(null);
+                BytesRef term;
+                while ((term = termsEnum.next()) != null) {
+                    int id = termIds.add(term);
+                    idfs = ArrayUtil.grow(idfs, id+1);
+                    idfs[id] = tfidfSIM.idf(termsEnum.docFreq(), docCount);
+                }
+            }
+            Bits liveDocs = MultiFields.getLiveDocs(ireader);
+            SortedDocValues filePaths = MultiDocValues.getSortedValues(ireader, "path");
+            if(filePaths == null){
+                return;
+            }
+            KeywordWriter keywordWriter = new KeywordWriter(writer,tfidfSIM,idfs,termIds);
+            if(schema.hasTermVectors()){
+                TermsEnum termsEnum = null;
+                for(int i=0;i<ireader.maxDoc();i++){
+                    String path = keywordPath(i,liveDocs,filePaths,paths);
+                    if(path == null){
+                        continue;
+                    }
+                    Terms terms = ireader.getTermVector(i,"contents");
+                    if (terms != null && terms.size() > 0){
+                        termsEnum = terms.iterator(termsEnum);
+                        BytesRef term;
+                        while ((term = termsEnum.next()) != null) {
+                            keywordWriter.add(termIds.find(term), termsEnum.totalTermFreq());
                         }
                     }
+                    keywordWriter.write(path);
+                }
+                return;
+            }
+            int[] targets = new int[16];
+            int targetCount = 0;
+            for(int i=0;i<ireader.maxDoc();i++){
+                if(keywordPath(i,liveDocs,filePaths,paths) != null){
+                    targets = ArrayUtil.grow(targets, targetCount+1);
+                    targets[targetCount++] = i;
+                }
+            }
+            if(allTerms == null || targetCount == 0){
+                for(int k=0;k<targetCount;k++){
+                    keywordWriter.write(filePaths.get(targets[k]).utf8ToString());
                 }
-                String hightfidfwords="";
-                if(j>0){
-                    float mTfIdf=totalTfIdf/j;
-                    float limit=(mTfIdf+maxTfIdf)/2;
-                    for (Map.Entry pair : contents.entrySet()) {
-                        if((Float)pair.getValue()>limit){
-                            hightfidfwords+=" "+(String)pair.getKey();
+                return;
+            }
+            int docCount = ireader.getDocCount("contents");
+            long sumDocFreq = allTerms.getSumDocFreq();
+            long perDoc = sumDocFreq > 0 && docCount > 0 ? Math.max(1, sumDocFreq/docCount) : 1;
+            int blockDocs = (int)Math.max(1, KEYWORD_POSTINGS/perDoc);
+            DocsEnum docs = null;
+            int[] owners = new int[16];
+            int[] ids = new int[16];
+            int[] freqs = new int[16];
+            for(int from=0;from<targetCount;from+=blockDocs){
+                int to = Math.min(targetCount, from+blockDocs);
+                int last = targets[to-1];
+                int n = 0;
+                TermsEnum termsEnum = allTerms.iterator(null);
+                for(int id=0;termsEnum.next() != null;id++){
+                    docs = termsEnum.docs(liveDocs, docs, DocsEnum.FLAG_FREQS);
+                    int k = from;
+                    while(k < to){
+                        int doc = docs.advance(targets[k]);
+                        if(doc > last){
+                            break;
                         }
+                        if(targets[k] < doc){
+                            k = Arrays.binarySearch(targets, k+1, to, doc);
+                            if(k < 0){
+                                k = -k-1;
+                                continue;
+                            }
+                        }
+                        owners = ArrayUtil.grow(owners, n+1);
+                        ids = ArrayUtil.grow(ids, n+1);
+                        freqs = ArrayUtil.grow(freqs, n+1);
+                        owners[n] = k-from;
+                        ids[n] = id;
+                        freqs[n] = docs.freq();
+                        n++;
+                        k++;
                     }
                 }
-                Document doc=new Document();
-                doc.add(new Field("path",isearcher.doc(i).get("path"),TextField.TYPE_STORED));
-                doc.add(new Field("hightfidfcontents",hightfidfwords,TextField.TYPE_STORED));
-                IndexWriterConfig config=new IndexWriterConfig(new EnglishAnalyzer());
-                try (IndexWriter writer = new IndexWriter(directory,config)) {
-                    writer.addDocument(doc);
+                // the postings were read term by term, group them by document
+                int[] starts = new int[to-from+1];
+                for(int p=0;p<n;p++){
+                    starts[owners[p]+1]++;
+                }
+                for(int k=0;k<to-from;k++){
+                    starts[k+1] += starts[k];
+                }
+                int[] order = new int[n];
+                int[] next = Arrays.copyOf(starts, to-from);
+                for(int p=0;p<n;p++){
+                    order[next[owners[p]]++] = p;
+                }
+                for(int k=0;k<to-from;k++){
+                    for(int p=starts[k];p<starts[k+1];p++){
+                        keywordWriter.add(ids[order[p]], freqs[order[p]]);
+                    }
+                    keywordWriter.write(filePaths.get(targets[from+k]).utf8ToString());
                 }
             }
         }
      }
-
     
-    public ArrayList<String> searchFilenames(String term) throws IOException, ParseException{
-        ArrayList<String> results = new ArrayList<>();
-        DirectoryReader ireader = DirectoryReader.open(directory);
-        IndexSearcher searcher = new IndexSearcher(ireader);
-        PhraseQuery query = new PhraseQuery();
-        query.setSlop(0);
-        String[] splitterm=term.split("\\s+");
-        for(String word:splitterm){
-            query.add(new Term("filename",EnglishStemmer(word)));
+    /**
+     * Path of the document if it is a live file document that needs keywords.
+     */
+    private static String keywordPath(int doc,Bits liveDocs,SortedDocValues filePaths,Set<String> paths){
+        if((liveDocs != null && !liveDocs.get(doc)) || filePaths.getOrd(doc) < 0){
+            return null;
         }
+        String path=filePaths.get(doc).utf8ToString();
+        return paths == null || paths.contains(path) ? path : null;
+    }
+    
+    /**
+     * Scores the terms of one file document at a time and writes the keyword
+     * document of the file: the terms whose tf-idf is above the midpoint of
+     * the mean and the maximum.
+     */
+    private final class KeywordWriter {
         
-        TopDocs topdocs=searcher.search(query,null,10000);
-        ScoreDoc[] hits=topdocs.scoreDocs;
-        for (ScoreDoc hit : hits) {
-                int docID = hit.doc;
-                Document doc=searcher.doc(docID);
-                results.add(doc.get("path"));
+        private final IndexWriter writer;
+        private final TFIDFSimilarity tfidfSIM;
+        private final float[] idfs;
+        private final BytesRefHash termIds;
+        private final BytesRef scratch = new BytesRef();
+        private float[] scores = new float[16];
+        private int[] ids = new int[16];
+        private int j;
+        private float totalTfIdf;
+        private float maxTfIdf;
+        
+        private KeywordWriter(IndexWriter writer,TFIDFSimilarity tfidfSIM,float[] idfs,BytesRefHash termIds){
+            this.writer = writer;
+            this.tfidfSIM = tfidfSIM;
+            this.idfs = idfs;
+            this.termIds = termIds;
         }
-        return results;
+        
+        private void add(int id,long freq){
+            float tf = tfidfSIM.tf(freq);
+            float tfidf=tf*idfs[id];
+            if(tfidf>maxTfIdf){
+                maxTfIdf=tfidf;
+            }
+            totalTfIdf=totalTfIdf+tfidf;
+            scores = ArrayUtil.grow(scores, j+1);
+            ids = ArrayUtil.grow(ids, j+1);
+            scores[j] = tfidf;
+            ids[j] = id;
+            j++;
+        }
+        
+        private void write(String path) throws IOException{
+            StringBuilder hightfidfwords=new StringBuilder();
+            if(j>0){
+                float mTfIdf=totalTfIdf/j;
+                float limit=(mTfIdf+maxTfIdf)/2;
+                for (int k=0;k<j;k++) {
+                    if(scores[k]>limit){
+                        hightfidfwords.append(' ').append(termIds.get(ids[k],scratch).utf8ToString());
+                    }
+                }
+            }
+            Document doc=new Document();
+            doc.add(new StringField("key",path,Field.Store.NO));
+            doc.add(new SortedDocValuesField(KEYWORDS_OF_FIELD,new BytesRef(path)));
+            if(schema.hasTermVectors()){
+                doc.add(new Field("path",path,TextField.TYPE_STORED));
+                doc.add(new Field("hightfidfcontents",hightfidfwords.toString(),TextField.TYPE_STORED));
+            }
+            else{
+                doc.add(new Field("hightfidfcontents",hightfidfwords.toString(),TextField.TYPE_NOT_STORED));
+            }
+            writer.addDocument(doc);
+            j = 0;
+            totalTfIdf = 0;
+            maxTfIdf = 0;
+        }
+    }
+
+    
+    public ArrayList<String> searchFilenames(String term) throws IOException, ParseException{
+        return searchPhrase("filename",term);
     }
     
     public ArrayList<String> searchOrganisations(String term) throws IOException{
+        return searchPhrase("organisation",term);
+    }
+    
+   
+    public ArrayList<String> searchAuthors(String term) throws IOException, ParseException{
+        return searchPhrase("author",term);
+    }
+    
+    /**
+     * Returns the files whose contents contain the phrase and whose keywords
+     * contain one of its words. Always empty when keyword generation is off,
+     * and without searching when the words are not in the index.
+     * The keyword hits are joined to their file documents and intersected
+     * with the phrase hits as document id bitsets, and paths are loaded only
+     * for the files that survive; the number of hits is not limited.
+     */
+    public ArrayList<String> searchContents(String term) throws IOException, ParseException{
         ArrayList<String> results = new ArrayList<>();
-        DirectoryReader ireader = DirectoryReader.open(directory);
-        IndexSearcher searcher = new IndexSearcher(ireader);
-        PhraseQuery query = new PhraseQuery();
-        query.setSlop(0);
-        String[] splitterm=term.split("\\s+");
-        for(String word:splitterm){
-            query.add(new Term("organisation",EnglishStemmer(word)));
+        if(!keywords){
+            return results;
+        }
+        IndexSearcher searcher = searcherManager.acquire();
+        try{
+            IndexReader reader = searcher.getIndexReader();
+            String[] words = stemmer.stemPhrase(term);
+            Vocabulary terms = vocabulary(reader);
+            if(!isQueried(terms.containsAll("contents", words) && terms.containsAny("hightfidfcontents", words))){
+                return results;
+            }
+            final int[] owners = keywordOwners(reader);
+            final FixedBitSet keywordFiles = new FixedBitSet(reader.maxDoc());
+            String[] splitterm=term.split("\\s+");
+            for(String split:splitterm){
+                QueryParser tfidfparser=new QueryParser("hightfidfcontents",stemmer.getAnalyzer());
+                Query query=tfidfparser.parse(QueryParser.escape(split));
+                searcher.search(query, new SimpleCollector(){
+                    private int docBase;
+                    
+                    @Override
+                    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+                        docBase = context.docBase;
+                    }
+                    
+                    @Override
+                    public void collect(int doc) throws IOException {
+                        int owner = owners[docBase+doc];
+                        if(owner >= 0){
+                            keywordFiles.set(owner);
+                        }
+                    }
+                });
+            }
+            ScoredHitCollector contentHits = new ScoredHitCollector(keywordFiles);
+            searcher.search(phraseQuery("contents",words), contentHits);
+            for(int doc:contentHits.sortedDocs()){
+                results.add(path(reader,doc));
+            }
         }
+        finally{
+            searcherManager.release(searcher);
+        }
+        return withCopies(results,copies);
+    }
+    
+    /**
+     * Maps the id of every keyword document of the reader to the id of the 
+     * file document with the same path, or -1. Computed once per reader. The
+     * join is made on the ordinals of the paths in the doc values, so no
+     * stored field is read.
+     */
+    private int[] keywordOwners(IndexReader reader) throws IOException{
+        KeywordJoin join = keywordJoin;
+        if(join != null && join.reader == reader){
+            return join.owners;
+        }
+        synchronized(this){
+            join = keywordJoin;
+            if(join != null && join.reader == reader){
+                return join.owners;
+            }
+            Bits liveDocs = MultiFields.getLiveDocs(reader);
+            int[] owners = new int[reader.maxDoc()];
+            Arrays.fill(owners, -1);
+            SortedDocValues paths = MultiDocValues.getSortedValues(reader, "path");
+            SortedDocValues keywordPaths = MultiDocValues.getSortedValues(reader, KEYWORDS_OF_FIELD);
+            if(paths != null && keywordPaths != null){
+                int[] files = new int[paths.getValueCount()];
+                Arrays.fill(files, -1);
+                for(int i=0;i<reader.maxDoc();i++){
+                    int ord = paths.getOrd(i);
+                    if(ord >= 0 && (liveDocs == null || liveDocs.get(i))){
+                        files[ord] = i;
+                    }
+                }
+                int[] fileOrds = new int[keywordPaths.getValueCount()];
+                for(int ord=0;ord<fileOrds.length;ord++){
+                    fileOrds[ord] = paths.lookupTerm(keywordPaths.lookupOrd(ord));
+                }
+                for(int i=0;i<reader.maxDoc();i++){
+                    int ord = keywordPaths.getOrd(i);
+                    if(ord >= 0 && fileOrds[ord] >= 0 && (liveDocs == null || liveDocs.get(i))){
+                        owners[i] = files[fileOrds[ord]];
+                    }
+                }
+            }
+            keywordJoin = new KeywordJoin(reader,owners);
+            return owners;
+        }
+    }
+    
+    private static final class KeywordJoin {
         
-        TopDocs topdocs=searcher.search(query,null,10000);
-        ScoreDoc[] hits=topdocs.scoreDocs;
-        for (ScoreDoc hit : hits) {
-                int docID = hit.doc;
-                Document doc=searcher.doc(docID);
-                results.add(doc.get("path"));
+        private final IndexReader reader;
+        private final int[] owners;
+        
+        private KeywordJoin(IndexReader reader,int[] owners){
+            this.reader = reader;
+            this.owners = owners;
         }
-        return results;
     }
     
-   
-    public ArrayList<String> searchAuthors(String term) throws IOException, ParseException{
-        ArrayList<String> results = new ArrayList<>();
-        DirectoryReader ireader = DirectoryReader.open(directory);
-        IndexSearcher searcher = new IndexSearcher(ireader);
+    private ArrayList<String> searchPhrase(String field,String term) throws IOException{
+        IndexSearcher searcher = searcherManager.acquire();
+        try{
+            String[] words = stemmer.stemPhrase(term);
+            if(!isQueried(vocabulary(searcher.getIndexReader()).containsAll(field, words))){
+                return new ArrayList<>();
+            }
+            return collectPaths(searcher,phraseQuery(field,words));
+        }
+        finally{
+            searcherManager.release(searcher);
+        }
+    }
+    
+    /**
+     * Term dictionaries of the reader, looked up once per reader.
+     */
+    private Vocabulary vocabulary(IndexReader reader){
+        Vocabulary terms = vocabulary;
+        if(terms == null || terms.getReader() != reader){
+            terms = new Vocabulary(reader);
+            vocabulary = terms;
+        }
+        return terms;
+    }
+    
+    /**
+     * Counts a concept query, and whether it was skipped because its words
+     * are not in the index.
+     */
+    private boolean isQueried(boolean possible){
+        conceptQueries.incrementAndGet();
+        if(!possible){
+            skippedQueries.incrementAndGet();
+        }
+        return possible;
+    }
+    
+    /**
+     * Runs the four searches for every concept on a fork/join pool of the 
+     * given size and merges the results in concept order, which gives the
+     * same maps as calling the search methods one concept at a time.
+     */
+    public ConceptMatches searchConcepts(Collection<String> concepts,int threads) throws IOException, ParseException{
+        List<String> conceptList = new ArrayList<>(concepts);
+        int size = conceptList.size();
+        List<ArrayList<String>> authors = new ArrayList<>(Collections.<ArrayList<String>>nCopies(size, null));
+        List<ArrayList<String>> organisations = new ArrayList<>(Collections.<ArrayList<String>>nCopies(size, null));
+        List<ArrayList<String>> filenames = new ArrayList<>(Collections.<ArrayList<String>>nCopies(size, null));
+        List<ArrayList<String>> contents = new ArrayList<>(Collections.<ArrayList<String>>nCopies(size, null));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try{
+            pool.invoke(new ConceptSearchTask(this,conceptList,authors,organisations,filenames,contents,0,size));
+        }
+        catch(ConceptSearchTask.SearchFailure ex){
+            Throwable cause = ex.getCause();
+            while(cause instanceof ConceptSearchTask.SearchFailure){
+                cause = cause.getCause();
+            }
+            if(cause instanceof ParseException){
+                throw (ParseException)cause;
+            }
+            throw (IOException)cause;
+        }
+        finally{
+            pool.shutdown();
+        }
+        ConceptMatches result = new ConceptMatches();
+        for(int i=0;i<size;i++){
+            String concept = conceptList.get(i);
+            if(!authors.get(i).isEmpty()){
+                result.getAuthorMatches().put(concept, authors.get(i));
+            }
+            if(!organisations.get(i).isEmpty()){
+                result.getOrgMatches().put(concept, organisations.get(i));
+            }
+            if(!filenames.get(i).isEmpty()){
+                result.getMatches().put(concept, filenames.get(i));
+            }
+            if(!contents.get(i).isEmpty()){
+                result.getMatches().put(concept, contents.get(i));
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Matches all concepts in one pass over the indexed documents, giving the
+     * same results as calling the four search methods for every concept.
+     */
+    public ConceptMatches matchConcepts(Collection<String> concepts) throws IOException{
+        List<String> conceptList = new ArrayList<>(concepts);
+        List<String[]> phrases = new ArrayList<>();
+        for(String concept:conceptList){
+            phrases.add(stemmer.stemPhrase(concept));
+        }
+        IndexSearcher searcher = searcherManager.acquire();
+        try{
+            return new DictionaryMatcher(searcher.getIndexReader(),stemmer.getAnalyzer(),keywords,conceptList,phrases,copies).match();
+        }
+        finally{
+            searcherManager.release(searcher);
+        }
+    }
+    
+    private static PhraseQuery phraseQuery(String field,String[] words){
         PhraseQuery query = new PhraseQuery();
         query.setSlop(0);
-        String[] splitterm=term.split("\\s+");
-        for(String word:splitterm){
-            query.add(new Term("author",EnglishStemmer(word)));
+        for(String word:words){
+            query.add(new Term(field,word));
         }
+        return query;
+    }
+    
+    
+    private ArrayList<String> collectPaths(IndexSearcher searcher,Query query) throws IOException{
+        ArrayList<String> results = new ArrayList<>();
         TopDocs topdocs=searcher.search(query,null,10000);
         ScoreDoc[] hits=topdocs.scoreDocs;
         for (ScoreDoc hit : hits) {
-                int docID = hit.doc;
-                Document doc=searcher.doc(docID);
-                results.add(doc.get("path"));
-        } 
-        
+                results.add(path(searcher.getIndexReader(),hit.doc));
+        }
         return results;
     }
     
-    public ArrayList<String> searchContents(String term) throws IOException, ParseException{
-        ArrayList<String> results = new ArrayList<>();
-        ArrayList<String> tfidfresults = new ArrayList<>();
-        DirectoryReader ireader = DirectoryReader.open(directory);
-        IndexSearcher searcher = new IndexSearcher(ireader);
-        String[] splitterm=term.split("\\s+");
-         for(String split:splitterm){
-            QueryParser tfidfparser=new QueryParser("hightfidfcontents",new EnglishAnalyzer());
-            Query query=tfidfparser.parse(QueryParser.escape(split));
-            TopDocs topdocs=searcher.search(query,null,10000);
-            ScoreDoc[] hits=topdocs.scoreDocs;
-            for (ScoreDoc hit : hits) {
-                   int docID = hit.doc;
-                   Document doc=searcher.doc(docID);
-                   tfidfresults.add(doc.get("path"));
-            } 
-         }
-         ArrayList<String> cresults=new ArrayList<>();
-         PhraseQuery query = new PhraseQuery();
-         query.setSlop(0);
-         for(String word:splitterm){
-             query.add(new Term("contents",EnglishStemmer(word)));
-         }
-         TopDocs topdocs=searcher.search(query,null,10000);
-         ScoreDoc[] hits=topdocs.scoreDocs;
-         for (ScoreDoc hit : hits) {
-                int docID = hit.doc;
-                Document doc=searcher.doc(docID);
-                cresults.add(doc.get("path"));
-         }
-         for(String res:cresults){
-             if(tfidfresults.contains(res)){
-                 results.add(res);
-             }
-         }
-        
-        return results;
+    /**
+     * Reads the path of a file document from the doc values of its segment,
+     * without loading its stored fields.
+     */
+    private static String path(IndexReader reader,int doc) throws IOException{
+        List<LeafReaderContext> leaves = reader.leaves();
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+        return DocValues.getSorted(leaf.reader(), "path").get(doc-leaf.docBase).utf8ToString();
     }
     
-    private String EnglishStemmer(String term) throws IOException {
-       String sTerm="";  
-       try (EnglishAnalyzer analyzer = new EnglishAnalyzer()) {
-            TokenStream ts = analyzer.tokenStream("fieldName", new StringReader(term));
-            ts.reset();
-            while (ts.incrementToken()){
-                CharTermAttribute ca = ts.getAttribute(CharTermAttribute.class);
-                sTerm+=ca.toString()+" ";
-            }
-            analyzer.close();
+    /**
+     * Reopens the shared searcher if the index changed since it was opened.
+     */
+    public void refresh() throws IOException{
+        searcherManager.maybeRefresh();
+    }
+    
+    /**
+     * Closes the shared searcher and the index directory. The file metadata
+     * stays available.
+     */
+    @Override
+    public void close() throws IOException{
+        try{
+            searcherManager.close();
         }
-        if(sTerm.equals("")){
-            sTerm=term;
+        finally{
+            stemmer.close();
+            directory.close();
         }
-        return sTerm.replaceAll("\\s+$", "");
-   }
-
+    }
+    
     public Map<String, FileMetadata> getFileMeta() {
         return fileMeta;
     }
     
+    /**
+     * Crawler of the input tree, with the statistics of the last crawl.
+     */
+    public FileCrawler getCrawler() {
+        return crawler;
+    }
+    
+    /**
+     * Number of files whose parse ran over the time budget and that were 
+     * indexed with the metadata read until then, without contents.
+     */
+    public int getTimedOutFiles() {
+        return timedOutFiles;
+    }
+    
+    /**
+     * Number of files whose parse read more bytes than the size budget and
+     * that were indexed with the metadata read until then, without contents.
+     */
+    public int getOverBudgetFiles() {
+        return overBudgetFiles;
+    }
+    
+    /**
+     * Number of concept queries asked for through the search methods, one 
+     * per concept and field.
+     */
+    public int getConceptQueries() {
+        return conceptQueries.get();
+    }
+    
+    /**
+     * Number of concept queries that were not run because one of the words
+     * of the concept is not a term of the field.
+     */
+    public int getSkippedConceptQueries() {
+        return skippedQueries.get();
+    }
+    
+    /**
+     * Schema the index was built with.
+     */
+    public IndexSchema getSchema() {
+        return schema;
+    }
+    
+    /**
+     * Number of files added to the index by this run, copies included; only
+     * the changed files when an existing index was updated.
+     */
+    public int getIndexedFiles() {
+        return indexedFiles;
+    }
+    
+    /**
+     * Total size of the files added to the index by this run.
+     */
+    public long getIndexedBytes() {
+        return indexedBytes;
+    }
+    
+    /**
+     * Time taken to crawl, extract and index the input tree, keywords
+     * included.
+     */
+    public long getIndexingMillis() {
+        return indexingMillis;
+    }
+    
+    /**
+     * Size of the index files once indexing was done.
+     */
+    public long getIndexSize() {
+        return indexSize;
+    }
+    
+    /**
+     * Number of files larger than the size budget, of which only the
+     * metadata was extracted.
+     */
+    public int getOversizedFiles() {
+        return classifier.getOversizedFiles();
+    }
+    
+    /**
+     * Pre-filter of the files, with the number of files and bytes sent to
+     * each extraction mode.
+     */
+    public FileClassifier getClassifier() {
+        return classifier;
+    }
+    
     
     
 }
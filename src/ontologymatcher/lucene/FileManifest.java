@@ -0,0 +1,127 @@
+
+package ontologymatcher.lucene;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Path, size, modification time and (optionally) content hash of every file
+ * in a persistent index, kept next to the index so that a later run only
+ * re-extracts the files that changed.
+ */
+final class FileManifest {
+
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final Map<String,Entry> entries;
+    private final boolean loaded;
+
+    private FileManifest(File file,Map<String,Entry> entries,boolean loaded){
+        this.file = file;
+        this.entries = entries;
+        this.loaded = loaded;
+    }
+
+    static FileManifest load(File file) throws IOException{
+        Map<String,Entry> entries = new HashMap<>();
+        if(!file.exists()){
+            return new FileManifest(file,entries,false);
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readInt() != VERSION){
+                return new FileManifest(file,new HashMap<String,Entry>(),false);
+            }
+            int count = in.readInt();
+            for(int i=0;i<count;i++){
+                String path = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                String hash = in.readUTF();
+                entries.put(path, new Entry(size,modified,hash.isEmpty() ? null : hash));
+            }
+        }
+        return new FileManifest(file,entries,true);
+    }
+
+    /**
+     * Writes the manifest to a temporary file first and then moves it in
+     * place, so an interrupted run never leaves a half written manifest.
+     */
+    void save() throws IOException{
+        File temp = new File(file.getPath()+".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for(Map.Entry<String,Entry> pair:entries.entrySet()){
+                Entry entry = pair.getValue();
+                out.writeUTF(pair.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.modified);
+                out.writeUTF(entry.hash == null ? "" : entry.hash);
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    boolean isLoaded(){
+        return loaded;
+    }
+
+    Entry get(String path){
+        return entries.get(path);
+    }
+
+    void put(String path,Entry entry){
+        entries.put(path, entry);
+    }
+
+    void remove(String path){
+        entries.remove(path);
+    }
+
+    void clear(){
+        entries.clear();
+    }
+
+    Set<String> paths(){
+        return new HashSet<>(entries.keySet());
+    }
+
+    static final class Entry {
+
+        private final long size;
+        private final long modified;
+        private final String hash;
+
+        Entry(long size,long modified,String hash){
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+
+        long getSize(){
+            return size;
+        }
+
+        long getModified(){
+            return modified;
+        }
+
+        String getHash(){
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+
+package ontologymatcher.lucene;
+
+/**
+ * What the index keeps of every file, trading the size of the index for the
+ * searches it supports.
+ */
+public enum IndexSchema {
+
+    /**
+     * Contents with positions and term vectors, stored keywords and a
+     * tokenized path. Supports every search method of the
+     * {@link DirectoryIndexer} and both the query and the dictionary matcher.
+     */
+    FULL("full",true,true),
+    /**
+     * Contents with positions for phrase queries but without term vectors,
+     * keywords that are indexed but not stored, and a path that is only
+     * stored. Supports searchFilenames, searchAuthors, searchOrganisations
+     * and searchContents, so the query matcher only: the dictionary matcher
+     * reads the term vectors and the stored keywords.
+     */
+    MATCH_ONLY("match-only",true,false),
+    /**
+     * Names and metadata only: the text of documents is not extracted and
+     * no keywords are generated. Supports searchFilenames, searchAuthors and
+     * searchOrganisations with either matcher; searchContents finds nothing.
+     */
+    METADATA_ONLY("metadata-only",false,false);
+
+    private final String label;
+    private final boolean contents;
+    private final boolean termVectors;
+
+    private IndexSchema(String label,boolean contents,boolean termVectors){
+        this.label = label;
+        this.contents = contents;
+        this.termVectors = termVectors;
+    }
+
+    /**
+     * Name of the schema on the command line and in reports.
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Whether the text of documents is indexed, and keywords generated.
+     */
+    public boolean hasContents() {
+        return contents;
+    }
+
+    /**
+     * Whether the contents keep their term vectors, and the keywords and
+     * path their stored text, as the dictionary matcher needs.
+     */
+    public boolean hasTermVectors() {
+        return termVectors;
+    }
+
+    /**
+     * @return the schema with the given label, or null if there is none
+     */
+    public static IndexSchema forLabel(String label){
+        for(IndexSchema schema:values()){
+            if(schema.label.equals(label)){
+                return schema;
+            }
+        }
+        return null;
+    }
+}
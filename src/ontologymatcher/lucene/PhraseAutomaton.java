@@ -0,0 +1,99 @@
+
+package ontologymatcher.lucene;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton over token sequences. Every phrase added to it is
+ * reported, by id, at the state reached after its last token, so a single
+ * pass over a token stream finds the occurrences of all phrases at once.
+ */
+final class PhraseAutomaton {
+
+    static final int ROOT = 0;
+    private static final int[] NONE = new int[0];
+
+    private final List<Map<String,Integer>> transitions;
+    private final List<int[]> outputs;
+    private int[] failure;
+
+    PhraseAutomaton(){
+        transitions = new ArrayList<>();
+        outputs = new ArrayList<>();
+        newState();
+    }
+
+    private int newState(){
+        transitions.add(new HashMap<String,Integer>(4));
+        outputs.add(NONE);
+        return transitions.size()-1;
+    }
+
+    void add(String[] phrase,int id){
+        int state = ROOT;
+        for(String token:phrase){
+            Integer next = transitions.get(state).get(token);
+            if(next == null){
+                next = newState();
+                transitions.get(state).put(token, next);
+            }
+            state = next;
+        }
+        outputs.set(state, append(outputs.get(state), id));
+    }
+
+    /**
+     * Computes the failure links; must be called after the last add.
+     */
+    void compile(){
+        failure = new int[transitions.size()];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for(int child:transitions.get(ROOT).values()){
+            failure[child] = ROOT;
+            queue.add(child);
+        }
+        while(!queue.isEmpty()){
+            int state = queue.poll();
+            for(Map.Entry<String,Integer> pair:transitions.get(state).entrySet()){
+                int child = pair.getValue();
+                int fallback = failure[state];
+                while(fallback != ROOT && !transitions.get(fallback).containsKey(pair.getKey())){
+                    fallback = failure[fallback];
+                }
+                Integer target = transitions.get(fallback).get(pair.getKey());
+                failure[child] = target == null || target == child ? ROOT : target;
+                int[] inherited = outputs.get(failure[child]);
+                for(int id:inherited){
+                    outputs.set(child, append(outputs.get(child), id));
+                }
+                queue.add(child);
+            }
+        }
+    }
+
+    int step(int state,String token){
+        while(state != ROOT && !transitions.get(state).containsKey(token)){
+            state = failure[state];
+        }
+        Integer next = transitions.get(state).get(token);
+        return next == null ? ROOT : next;
+    }
+
+    /**
+     * Ids of the phrases that end at the given state.
+     */
+    int[] matches(int state){
+        return outputs.get(state);
+    }
+
+    private static int[] append(int[] ids,int id){
+        int[] grown = new int[ids.length+1];
+        System.arraycopy(ids, 0, grown, 0, ids.length);
+        grown[ids.length] = id;
+        return grown;
+    }
+}
@@ -0,0 +1,74 @@
+
+package ontologymatcher.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+
+/**
+ * Collects every hit of a query that is also set in a filter, with its 
+ * score, without a limit on the number of hits. Only the surviving hits are 
+ * kept, as parallel primitive arrays, and {@link #sortedDocs()} returns them 
+ * in the order of a TopDocs: by descending score, then by document id.
+ */
+final class ScoredHitCollector extends SimpleCollector {
+    
+    private final Bits filter;
+    private Scorer scorer;
+    private int docBase;
+    private int[] docs;
+    private float[] scores;
+    private int size;
+    
+    ScoredHitCollector(Bits filter){
+        this.filter = filter;
+        docs = new int[16];
+        scores = new float[16];
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        docBase = context.docBase;
+    }
+
+    @Override
+    public void setScorer(Scorer scorer) throws IOException {
+        this.scorer = scorer;
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        int globalDoc = docBase+doc;
+        if(filter.get(globalDoc)){
+            docs = ArrayUtil.grow(docs, size+1);
+            scores = ArrayUtil.grow(scores, size+1);
+            docs[size] = globalDoc;
+            scores[size] = scorer.score();
+            size++;
+        }
+    }
+    
+    int[] sortedDocs(){
+        Integer[] order = new Integer[size];
+        for(int i=0;i<size;i++){
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>(){
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byScore = Float.compare(scores[b], scores[a]);
+                return byScore != 0 ? byScore : Integer.compare(docs[a], docs[b]);
+            }
+        });
+        int[] sorted = new int[size];
+        for(int i=0;i<size;i++){
+            sorted[i] = docs[order[i]];
+        }
+        return sorted;
+    }
+}
@@ -0,0 +1,96 @@
+
+package ontologymatcher.lucene;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+/**
+ * Thread safe English stemming with a single shared analyzer. The analyzer 
+ * keeps one reusable token stream per thread, so the stopword set is loaded
+ * once per run. Stemmed words are kept in a bounded LRU cache and stemmed 
+ * phrases, the concepts, are stemmed only once.
+ */
+final class Stemmer {
+    
+    private static final int CAPACITY = 100000;
+    
+    private final EnglishAnalyzer analyzer;
+    private final Map<String,String> words;
+    private final Map<String,String[]> phrases;
+    
+    Stemmer(){
+        analyzer = new EnglishAnalyzer();
+        words = new LinkedHashMap<String,String>(1024,0.75f,true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,String> eldest) {
+                return size() > CAPACITY;
+            }
+        };
+        phrases = new ConcurrentHashMap<>();
+    }
+    
+    Analyzer getAnalyzer(){
+        return analyzer;
+    }
+    
+    /**
+     * Returns the analyzed tokens of the word separated by single spaces, or 
+     * the word itself when the analyzer drops it.
+     */
+    String stem(String word) throws IOException{
+        String stemmed;
+        synchronized(words){
+            stemmed = words.get(word);
+        }
+        if(stemmed == null){
+            stemmed = analyze(word);
+            synchronized(words){
+                words.put(word, stemmed);
+            }
+        }
+        return stemmed;
+    }
+    
+    /**
+     * Stems every whitespace separated word of the phrase. The returned array
+     * is shared between callers and must not be modified.
+     */
+    String[] stemPhrase(String phrase) throws IOException{
+        String[] stemmed = phrases.get(phrase);
+        if(stemmed == null){
+            String[] splitterm = phrase.split("\\s+");
+            stemmed = new String[splitterm.length];
+            for(int i=0;i<splitterm.length;i++){
+                stemmed[i] = stem(splitterm[i]);
+            }
+            phrases.put(phrase, stemmed);
+        }
+        return stemmed;
+    }
+    
+    private String analyze(String word) throws IOException{
+        StringBuilder stemmed = new StringBuilder();
+        try (TokenStream ts = analyzer.tokenStream("", word)) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()){
+                if(stemmed.length() > 0){
+                    stemmed.append(' ');
+                }
+                stemmed.append(term.buffer(), 0, term.length());
+            }
+            ts.end();
+        }
+        return stemmed.length() == 0 ? word : stemmed.toString();
+    }
+    
+    void close(){
+        analyzer.close();
+    }
+}
@@ -0,0 +1,90 @@
+
+package ontologymatcher.lucene;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import ontologymatcher.file.ExtractedFile;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexableField;
+
+/**
+ * Fields of a file whose contents are streamed into the index while it is
+ * still being parsed. The writer inverts the fields in iteration order, so
+ * the author and organisation fields, which depend on metadata that is only
+ * complete at the end of the parse, are created after the contents field has
+ * been consumed.
+ */
+final class StreamedDocument implements Iterable<IndexableField> {
+
+    private final List<IndexableField> fields;
+    private final ExtractedFile extracted;
+
+    StreamedDocument(List<IndexableField> fields,ExtractedFile extracted){
+        this.fields = fields;
+        this.extracted = extracted;
+    }
+
+    @Override
+    public Iterator<IndexableField> iterator() {
+        return new Iterator<IndexableField>(){
+
+            private int next = 0;
+            private boolean metadata = false;
+
+            @Override
+            public boolean hasNext() {
+                if(next == fields.size() && !metadata){
+                    metadata = true;
+                    addMetadata();
+                }
+                return next < fields.size();
+            }
+
+            @Override
+            public IndexableField next() {
+                if(!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                return fields.get(next++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private void addMetadata(){
+        try{
+            extracted.await();
+        }
+        catch(Exception ex){
+            throw new ExtractionFailure(ex);
+        }
+        addMetadata(fields,extracted.getAuthor(),extracted.getCompany());
+    }
+
+    static void addMetadata(List<IndexableField> fields,String author,String organisation){
+        if(author!=null && !author.matches("^\\s*$") && !author.equals("")){
+            fields.add(new Field("author",author,TextField.TYPE_STORED));
+        }
+        if(organisation!=null && !organisation.matches("^\\s*$") && !organisation.equals("")){
+            fields.add(new Field("organisation",organisation,TextField.TYPE_STORED));
+        }
+    }
+
+    /**
+     * Carries a failed parse out of the index writer.
+     */
+    static final class ExtractionFailure extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        ExtractionFailure(Exception cause){
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ontologymatcher.lucene;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * The term dictionaries of the fields of one reader, to tell before running
+ * the queries of a concept whether its stemmed words occur in a field at
+ * all. Every lookup is a {@link TermsEnum#seekExact} on an enum of its own,
+ * so the vocabulary can be shared between the search threads.
+ *
+ * A term that is only left in deleted documents still counts as present, so
+ * the check never rules out a query that would have matched.
+ */
+final class Vocabulary {
+
+    private final IndexReader reader;
+    private final Map<String,FieldTerms> fields;
+
+    Vocabulary(IndexReader reader){
+        this.reader = reader;
+        fields = new ConcurrentHashMap<>();
+    }
+
+    IndexReader getReader(){
+        return reader;
+    }
+
+    /**
+     * Whether every word is a term of the field, as a phrase query on the
+     * words needs.
+     */
+    boolean containsAll(String field,String[] words) throws IOException{
+        TermsEnum terms = terms(field);
+        if(terms == null){
+            return false;
+        }
+        for(String word:words){
+            if(!terms.seekExact(new BytesRef(word))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether one of the tokens of the words is a term of the field, as a
+     * query on any of the words needs. A stemmed word may hold several
+     * tokens separated by spaces.
+     */
+    boolean containsAny(String field,String[] words) throws IOException{
+        TermsEnum terms = terms(field);
+        if(terms == null){
+            return false;
+        }
+        for(String word:words){
+            for(String token:word.split(" ")){
+                if(terms.seekExact(new BytesRef(token))){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private TermsEnum terms(String field) throws IOException{
+        FieldTerms fieldTerms = fields.get(field);
+        if(fieldTerms == null){
+            fieldTerms = new FieldTerms(MultiFields.getTerms(reader, field));
+            fields.put(field, fieldTerms);
+        }
+        return fieldTerms.terms == null ? null : fieldTerms.terms.iterator(null);
+    }
+
+    /**
+     * Terms of a field, null when no document has the field.
+     */
+    private static final class FieldTerms {
+
+        private final Terms terms;
+
+        private FieldTerms(Terms terms){
+            this.terms = terms;
+        }
+    }
+}
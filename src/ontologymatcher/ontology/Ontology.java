@@ -1,32 +1,42 @@
 
 package ontologymatcher.ontology;
 
-import com.hp.hpl.jena.ontology.DatatypeProperty;
-import com.hp.hpl.jena.ontology.Individual;
-import com.hp.hpl.jena.ontology.ObjectProperty;
-import com.hp.hpl.jena.ontology.OntClass;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.ontology.OntModel;
 import com.hp.hpl.jena.ontology.OntModelSpec;
-import com.hp.hpl.jena.rdf.model.Literal;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.Property;
-import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
-import com.hp.hpl.jena.rdf.model.Statement;
-import com.hp.hpl.jena.rdf.model.StmtIterator;
 import com.hp.hpl.jena.util.FileManager;
+import com.hp.hpl.jena.util.FileUtils;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
+import ontologymatcher.config.MatcherConfig;
+import ontologymatcher.file.ExtractionMode;
 import ontologymatcher.file.FileAttributes;
+import ontologymatcher.file.FileClassifier;
+import ontologymatcher.file.FileCrawler;
+import ontologymatcher.file.FileKind;
+import ontologymatcher.lucene.ConceptMatches;
 import ontologymatcher.lucene.DirectoryIndexer;
+import ontologymatcher.utils.Utils;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.tika.exception.TikaException;
 import org.xml.sax.SAXException;
@@ -35,34 +45,40 @@ import org.xml.sax.SAXException;
 public class Ontology {
     
     private final File file;
-    private final OntModel model;
+    private OntModel model;
+    private final TripleStore store;
+    private final OntologySnapshot snapshot;
+    private String ontologyHash;
+    private Map<String,Integer> counters;
     private final String ns;
     private final String output;
+    private final MatcherConfig config;
     
-    private OntClass thingClass; 
-    private OntClass personClass;
-    private OntClass organisationClass;
-    private OntClass locationClass;
-    private OntClass nameClass;
-    private OntClass personNameClass;
-    private OntClass fileClass;
-    
-    private ObjectProperty hasLocation;
-    private ObjectProperty hasName;
-    private ObjectProperty personName;
-    private ObjectProperty hasAuthor;
-    private ObjectProperty authors;
-    private ObjectProperty relatedThing;
-    private ObjectProperty relatedFile;
-    
-    private DatatypeProperty path;
-    private DatatypeProperty name;
-    private DatatypeProperty fileType;
-    private DatatypeProperty creationTime;
-    private DatatypeProperty lastModificationTime;
-    private DatatypeProperty lastAccessTime;
-    private DatatypeProperty size;
+    private Resource thingClass; 
+    private Resource personClass;
+    private Resource organisationClass;
+    private Resource locationClass;
+    private Resource nameClass;
+    private Resource personNameClass;
+    private Resource fileClass;
     
+    private Property hasLocation;
+    private Property hasName;
+    private Property personName;
+    private Property hasAuthor;
+    private Property authors;
+    private Property relatedThing;
+    private Property relatedFile;
+    
+    private Property path;
+    private Property name;
+    private Property fileType;
+    private Property creationTime;
+    private Property lastModificationTime;
+    private Property lastAccessTime;
+    private Property size;
+    
+    private final Future<DirectoryIndexer> indexing;
     private DirectoryIndexer indexer;
     
     private final Map<String,ArrayList<String>> files;
@@ -81,30 +97,37 @@ public class Ontology {
     private Map<String,ArrayList<String>> authorMatches;
     private Map<String,ArrayList<String>> orgMatches;
     
-    private int currentLocationInstance;
-    private int currentFileInstance;
-    private int currentPersonInstance;
-    private int currentOrganisationInstance;
-    private int currentNameInstance;
-    private int currentPersonNameInstance;
-    private int currentThingInstance;
+    private OntologyUpdate update;
+    private List<Triple> added;
    
     
     public Ontology(String input,String out){
+        this(input,out,new MatcherConfig());
+    }
+    
+    public Ontology(String input,String out,MatcherConfig config){
+        this(input,out,config,null);
+    }
+    
+    /**
+     * @param indexing index of the input directory being built in the 
+     * background by {@link DirectoryIndexer#start}, or null to build it when
+     * the concepts are compared
+     */
+    public Ontology(String input,String out,MatcherConfig config,Future<DirectoryIndexer> indexing){
+        this.config = config;
+        this.indexing = indexing;
         output = out;
         file = new File(input);
-        model = ModelFactory.createOntologyModel( OntModelSpec.OWL_MEM); 
-        try (InputStream in = FileManager.get().open(out)) {
-            if (in == null)
-            {
-                throw new IllegalArgumentException( "File"+out+" not found");
-            }
-            model.read(in, "");
+        store = openStore(config.getStoreDirectory());
+        snapshot = store == null ? loadSnapshot() : null;
+        if(snapshot == null){
+            loadModel();
+            ns=model.getNsPrefixURI("");
         }
-        catch (IOException ex) {
-            System.out.println(String.format("Error: %s", ex.getMessage()));
+        else{
+            ns=snapshot.getNs();
         }
-        ns=model.getNsPrefixURI("");
         concepts = new HashSet<>();
         files = new HashMap<>();
         writtenFiles = new HashMap<>();
@@ -119,146 +142,157 @@ public class Ontology {
     
     private void getClassesAndProperties(){
         
-        thingClass = model.getOntClass(ns+"Thing");
-        personClass = model.getOntClass(ns+"Person");
-        organisationClass = model.getOntClass(ns+"Organisation");
-        locationClass = model.getOntClass(ns+"Location");
-        nameClass = model.getOntClass(ns+"Name");
-        personNameClass = model.getOntClass(ns+"Person_Name");
-        fileClass = model.getOntClass(ns+"File");
+        thingClass = model.getResource(ns+"Thing");
+        personClass = model.getResource(ns+"Person");
+        organisationClass = model.getResource(ns+"Organisation");
+        locationClass = model.getResource(ns+"Location");
+        nameClass = model.getResource(ns+"Name");
+        personNameClass = model.getResource(ns+"Person_Name");
+        fileClass = model.getResource(ns+"File");
         
-        hasLocation = model.getObjectProperty(ns+"hasLocation");
-        hasName = model.getObjectProperty(ns+"hasName");
-        personName = model.getObjectProperty(ns+"personName");
-        hasAuthor = model.getObjectProperty(ns+"hasAuthor");
-        authors = model.getObjectProperty(ns+"Authors");
-        relatedThing = model.getObjectProperty(ns+"relatedThing");
-        relatedFile = model.getObjectProperty(ns+"relatedFile");
+        hasLocation = model.getProperty(ns+"hasLocation");
+        hasName = model.getProperty(ns+"hasName");
+        personName = model.getProperty(ns+"personName");
+        hasAuthor = model.getProperty(ns+"hasAuthor");
+        authors = model.getProperty(ns+"Authors");
+        relatedThing = model.getProperty(ns+"relatedThing");
+        relatedFile = model.getProperty(ns+"relatedFile");
         
-        path = model.getDatatypeProperty(ns+"path");
-        name = model.getDatatypeProperty(ns+"name");
-        creationTime = model.getDatatypeProperty(ns+"creatioTime");
-        lastModificationTime = model.getDatatypeProperty(ns+"lastModificationTime");
-        lastAccessTime = model.getDatatypeProperty(ns+"lastAccessTime");
-        fileType = model.getDatatypeProperty(ns+"fileType");
-        size = model.getDatatypeProperty(ns+"size");
+        path = model.getProperty(ns+"path");
+        name = model.getProperty(ns+"name");
+        creationTime = model.getProperty(ns+"creatioTime");
+        lastModificationTime = model.getProperty(ns+"lastModificationTime");
+        lastAccessTime = model.getProperty(ns+"lastAccessTime");
+        fileType = model.getProperty(ns+"fileType");
+        size = model.getProperty(ns+"size");
     }
     
     public void readTriples(){
         
-         StmtIterator iter=model.listStatements();
-          while (iter.hasNext()){
-              Statement stmt=iter.nextStatement();
-              Resource subject=stmt.getSubject();
-              Property predicate=stmt.getPredicate();
-              RDFNode object=stmt.getObject();
-              if(object.isLiteral() 
-               && !(predicate.getNameSpace().equals(model.getNsPrefixURI("rdfs")))
-               && predicate.getLocalName().equals("name") ){
-                  Literal literalobject=object.asLiteral();
-                  String concept=literalobject.getValue().toString();
-                  concepts.add(concept);
-                  StmtIterator iter1=model.listStatements();
-                  while (iter1.hasNext()){
-                      Statement stmt1=iter1.nextStatement();
-                      Resource subject1=stmt1.getSubject();
-                      Property predicate1=stmt1.getPredicate();
-                      RDFNode object1=stmt1.getObject();
-                      if(object1.isResource() && subject.getLocalName().equals(object1.asResource().getLocalName())
-                      && predicate1.getLocalName().equals("personName") ){
-                          persons.put(concept, subject1.getLocalName());
-                      }
-                      if(object1.isResource() && subject.getLocalName().equals(object1.asResource().getLocalName())
-                      && predicate1.getLocalName().equals("hasName") ){
-                          
-                          if(subject1.getLocalName().startsWith("File_")){
-                              StmtIterator iter2 = model.listStatements();
-                              String path = "";
-                              String extension = "";
-                               while (iter2.hasNext()){
-                                   
-                                   Statement stmt2=iter2.nextStatement();
-                                   Resource subject2=stmt2.getSubject();
-                                   Property predicate2=stmt2.getPredicate();
-                                   RDFNode object2=stmt2.getObject();
-                                   if(subject2.getLocalName().equals(subject1.getLocalName()) && predicate2.getLocalName().equals("fileType")){
-                                       extension = object2.asLiteral().getValue().toString();
-                                   }
-                                   if(subject2.getLocalName().equals(subject1.getLocalName()) && predicate2.getLocalName().equals("hasLocation")){
-                                      StmtIterator iter3 = model.listStatements();
-                                      while (iter3.hasNext()){
-                                           Statement stmt3=iter3.nextStatement();
-                                           Resource subject3=stmt3.getSubject();
-                                           Property predicate3=stmt3.getPredicate();
-                                           RDFNode object3=stmt3.getObject();
-                                           if(subject3.getLocalName().equals(object2.asResource().getLocalName()) && predicate3.getLocalName().equals("path")){
-                                              path = object3.asLiteral().getValue().toString();
-                                           }
-                                   
-                                      } 
-                                   }
-                               }
-                               ArrayList<String> list;
-                               if(files.containsKey(concept)){
-                                   list = files.get(concept);
-                                   list.add(subject1.getLocalName());
-                                   files.put(concept, list);
-                               }
-                               else{
-                                   list = new ArrayList<>();
-                                   list.add(subject1.getLocalName());
-                                   files.put(concept, list);
-                               }
-                               writtenFiles.put(path+File.separator+concept+"."+extension, subject1.getLocalName());
-                              
-                          }
-                          else if(subject1.getLocalName().startsWith("Thing_")){
-                              things.put(concept, subject1.getLocalName());
-                          }
-                          else if(subject1.getLocalName().startsWith("Organisation_")){
-                              organisations.put(concept, subject1.getLocalName());
-                          }
-                      }
-                  }
-                  
-              }
-              else if(object.isLiteral() 
-               && !(predicate.getNameSpace().equals(model.getNsPrefixURI("rdfs")))
-               && predicate.getLocalName().equals("path") ){
-                  locations.put(object.asLiteral().getValue().toString(),subject.getLocalName());
-              }
-          }
+        OntologySnapshot tables = snapshot != null ? snapshot : readTables(ontologyHash);
+        concepts.addAll(tables.concepts);
+        files.putAll(tables.files);
+        writtenFiles.putAll(tables.writtenFiles);
+        locations.putAll(tables.locations);
+        things.putAll(tables.things);
+        persons.putAll(tables.persons);
+        organisations.putAll(tables.organisations);
+        counters = new HashMap<>(tables.counters);
+        if(snapshot == null && ontologyHash != null){
+            saveSnapshot(tables);
+        }
         
     }
     
+    /**
+     * Builds the lookup tables from the triples of the model.
+     */
+    private OntologySnapshot readTables(String hash){
+        OntologySnapshot tables = new OntologySnapshot(hash,ns);
+        TripleIndex index = new TripleIndex(model,ns);
+        for(String[] nameTriple:index.getNames()){
+            String subject = nameTriple[0];
+            String concept = nameTriple[1];
+            tables.concepts.add(concept);
+            String person = index.getPersonFor(subject);
+            if(person != null){
+                tables.persons.put(concept, person);
+            }
+            for(String named:index.getNamedBy(subject)){
+                if(named.startsWith("File_")){
+                    String path = index.getLocationPath(named);
+                    String extension = index.getFileType(named);
+                    ArrayList<String> list = tables.files.get(concept);
+                    if(list == null){
+                        list = new ArrayList<>();
+                        tables.files.put(concept, list);
+                    }
+                    list.add(named);
+                    tables.writtenFiles.put(path+File.separator+concept+"."+extension, named);
+                }
+                else if(named.startsWith("Thing_")){
+                    tables.things.put(concept, named);
+                }
+                else if(named.startsWith("Organisation_")){
+                    tables.organisations.put(concept, named);
+                }
+            }
+        }
+        for(String[] pathTriple:index.getPaths()){
+            tables.locations.put(pathTriple[0], pathTriple[1]);
+        }
+        tables.counters.putAll(index.getCounters());
+        return tables;
+    }
+    
     public void compareConceptsAndFiles() throws IOException, FileNotFoundException, SAXException, TikaException, ParseException{
         matches = new HashMap<>();
         authorMatches = new HashMap<>();
         orgMatches = new HashMap<>();
         if(concepts.isEmpty()){
             System.out.println("The ontology you specified has no concpets for comparison.");
+            if(indexing != null){
+                DirectoryIndexer.join(indexing).close();
+            }
         }
         else{
             
-            indexer = new DirectoryIndexer(file);
-            for(String concept:concepts){
-                ArrayList<String> authorfiles = indexer.searchAuthors(concept);
-                if(!authorfiles.isEmpty()){
-                   authorMatches.put(concept,authorfiles);
-                } 
-                ArrayList<String> organisationfiles = indexer.searchOrganisations(concept);
-                if(!organisationfiles .isEmpty()){
-                   orgMatches.put(concept,organisationfiles );
+            indexer = indexing != null ? DirectoryIndexer.join(indexing) : new DirectoryIndexer(file,config);
+            FileCrawler crawler = indexer.getCrawler();
+            System.out.println(String.format("Crawled %d files in %d ms (%.0f files/s), %d paths could not be read.",
+                    crawler.getFiles(),crawler.getElapsedMillis(),crawler.getFilesPerSecond(),crawler.getSkipped()));
+            printExtractionReport(indexer.getClassifier());
+            printIndexReport(indexer);
+            if(indexer.getTimedOutFiles() > 0 || indexer.getOverBudgetFiles() > 0){
+                System.out.println(String.format("%d files took too long to extract and %d files read more than the size limit; they were indexed with the metadata read until then, without contents.",
+                        indexer.getTimedOutFiles(),indexer.getOverBudgetFiles()));
+            }
+            if(indexer.getOversizedFiles() > 0){
+                System.out.println(String.format("%d files were larger than the size limit; only their metadata was extracted.",
+                        indexer.getOversizedFiles()));
+            }
+            try{
+                if(config.getMatcher().equals(MatcherConfig.DICTIONARY_MATCHER)){
+                    ConceptMatches conceptMatches = indexer.matchConcepts(concepts);
+                    matches = conceptMatches.getMatches();
+                    authorMatches = conceptMatches.getAuthorMatches();
+                    orgMatches = conceptMatches.getOrgMatches();
                 }
-                ArrayList<String> filenamefiles = indexer.searchFilenames(concept);
-                if(!filenamefiles.isEmpty()){
-                   matches.put(concept,filenamefiles);
+                else if(config.getMatchingThreads() > 1){
+                    ConceptMatches conceptMatches = indexer.searchConcepts(concepts,config.getMatchingThreads());
+                    matches = conceptMatches.getMatches();
+                    authorMatches = conceptMatches.getAuthorMatches();
+                    orgMatches = conceptMatches.getOrgMatches();
                 }
-                ArrayList<String> contentfiles = indexer.searchContents(concept);
-                if(!contentfiles.isEmpty()){
-                   matches.put(concept,contentfiles);
+                else{
+                    for(String concept:concepts){
+                        ArrayList<String> authorfiles = indexer.searchAuthors(concept);
+                        if(!authorfiles.isEmpty()){
+                           authorMatches.put(concept,authorfiles);
+                        } 
+                        ArrayList<String> organisationfiles = indexer.searchOrganisations(concept);
+                        if(!organisationfiles .isEmpty()){
+                           orgMatches.put(concept,organisationfiles );
+                        }
+                        ArrayList<String> filenamefiles = indexer.searchFilenames(concept);
+                        if(!filenamefiles.isEmpty()){
+                           matches.put(concept,filenamefiles);
+                        }
+                        ArrayList<String> contentfiles = indexer.searchContents(concept);
+                        if(!contentfiles.isEmpty()){
+                           matches.put(concept,contentfiles);
+                        }
+                    }
                 }
             }
+            finally{
+                indexer.close();
+            }
+            if(indexer.getConceptQueries() > 0){
+                System.out.println(String.format("Skipped %d of %d concept queries (%.1f%%) whose words are not in the index.",
+                        indexer.getSkippedConceptQueries(),indexer.getConceptQueries(),
+                        100.0*indexer.getSkippedConceptQueries()/indexer.getConceptQueries()));
+            }
             
         }
         
@@ -270,8 +304,12 @@ public class Ontology {
             System.out.println("No matches were found between ontology concepts and files metadata.");
         }
         else{
+            if(model == null){
+                // the snapshot is rebuilt from the whole model once it is written
+                loadModel();
+            }
             getClassesAndProperties();
-            getCurrentInstances();
+            update = new OntologyUpdate(model,ns,counters);
             if(!authorMatches.isEmpty()){
                 addAuthorFiles();
             }
@@ -282,38 +320,9 @@ public class Ontology {
                 addFiles();
             }
             addRemainingAuthorsAndOrgs();
+            added = update.apply();
             write();
-        }
-    }
-    
-    private void getCurrentInstances(){
-        currentLocationInstance = 0;
-        while(model.getIndividual(ns+"Location_"+currentLocationInstance) != null){
-            currentLocationInstance++;
-        }
-        currentFileInstance = 0;
-        while(model.getIndividual(ns+"File_"+currentFileInstance) != null){
-            currentFileInstance++;
-        }
-        currentPersonInstance = 0;
-        while(model.getIndividual(ns+"Person_"+currentPersonInstance) != null){
-            currentPersonInstance++;
-        }
-        currentOrganisationInstance = 0;
-        while(model.getIndividual(ns+"Organisation_"+currentOrganisationInstance) != null){
-            currentOrganisationInstance++;
-        }
-        currentNameInstance = 0;
-        while(model.getIndividual(ns+"Name_"+currentNameInstance) != null){
-            currentNameInstance++;
-        }
-        currentPersonNameInstance = 0;
-        while(model.getIndividual(ns+"Person_Name_"+currentPersonNameInstance) != null){
-            currentPersonNameInstance++;
-        }
-        currentThingInstance = 0;
-        while(model.getIndividual(ns+"Thing_"+currentThingInstance) != null){
-            currentThingInstance++;
+            updateSnapshot();
         }
     }
     
@@ -323,19 +332,17 @@ public class Ontology {
             if(!newFilesWithAuthors.contains(fileInstance)){
                 String author = indexer.getFileMeta().get((String)pair.getKey()).getAuthor();
                 if(author!=null && !author.matches("^\\s*$") && !author.equals("")){
-                    Individual authorIndividual = createPersonIndividual(author);
-                    Individual fileIndividual = model.getIndividual(ns+fileInstance);
-                    model.add(fileIndividual,hasAuthor,authorIndividual);
-                    model.add(authorIndividual,authors,fileIndividual);
+                    String authorInstance = createPersonIndividual(author);
+                    update.add(fileInstance,hasAuthor,authorInstance);
+                    update.add(authorInstance,authors,fileInstance);
                 }   
             }
             if(!newFilesWithOrgs.contains(fileInstance)){
                 String organisation = indexer.getFileMeta().get((String)pair.getKey()).getCompany();
                 if(organisation!=null && !organisation.matches("^\\s*$") && !organisation.equals("")){
-                   Individual orgIndividual = createOrganisationIndividual(organisation);
-                   Individual fileIndividual = model.getIndividual(ns+fileInstance);
-                   model.add(fileIndividual,relatedThing,orgIndividual);
-                   model.add(orgIndividual,relatedFile,fileIndividual); 
+                   String orgInstance = createOrganisationIndividual(organisation);
+                   update.add(fileInstance,relatedThing,orgInstance);
+                   update.add(orgInstance,relatedFile,fileInstance); 
                 }     
             }
         }
@@ -344,58 +351,68 @@ public class Ontology {
     private void addAuthorFiles() throws IOException, ParseException{
         for(Map.Entry pair:authorMatches.entrySet()){
                 String author = (String)pair.getKey();
-                Individual authorIndividual;
+                String authorInstance;
                 if(persons.containsKey(author)){
-                    authorIndividual = model.getIndividual(ns+persons.get(author));
+                    authorInstance = persons.get(author);
                 }
                 else{
-                    authorIndividual = createPersonIndividual(author);
-                    addOldThingRelations(author,authorIndividual);
+                    authorInstance = createPersonIndividual(author);
+                    addOldThingRelations(author,authorInstance);
                 }
                 ArrayList<String> authorfiles = (ArrayList<String>)pair.getValue();
                 for(String file:authorfiles){
-                    Individual fileIndividual;
-                    if(writtenFiles.containsKey(file)){
-                       fileIndividual = model.getIndividual(ns+writtenFiles.get(file));
-                    }
-                    else if(newFiles.containsKey(file)){
-                        fileIndividual = model.getIndividual(ns+newFiles.get(file));
-                    }
-                    else{
-                        String filename = indexer.getFileMeta().get(file).getFileName();
-                        fileIndividual = createFileIndividual(filename,new FileAttributes(new File(file)));
-                        newFiles.put(file, fileIndividual.getLocalName());
-                    }
-                    String filepath = indexer.getFileMeta().get(file).getFileParentPath();
-                    Individual locationIndividual;
-                    if(locations.containsKey(filepath)){
-                        locationIndividual = model.getIndividual(ns+locations.get(filepath));
-                    }
-                    else{
-                        locationIndividual = createLocationIndividual(filepath);
-                    }
-                    model.add(fileIndividual,hasLocation,locationIndividual);
-                    model.add(locationIndividual,relatedFile,fileIndividual);
+                    String fileInstance = fileInstance(file);
+                    addLocation(file,fileInstance);
                     
-                    model.add(fileIndividual,hasAuthor,authorIndividual);
-                    model.add(authorIndividual,authors,fileIndividual);
-                    newFilesWithAuthors.add(fileIndividual.getLocalName());
-                    addOldAuthorFileRelations(author,fileIndividual);
+                    update.add(fileInstance,hasAuthor,authorInstance);
+                    update.add(authorInstance,authors,fileInstance);
+                    newFilesWithAuthors.add(fileInstance);
+                    addOldAuthorFileRelations(author,fileInstance);
                 }
             }
     }
     
-    private void addOldAuthorFileRelations(String concept,Individual fileIndividual){
+    /**
+     * Instance of an indexed file, created on first use unless the ontology 
+     * already describes the file.
+     */
+    private String fileInstance(String file) throws IOException{
+        if(writtenFiles.containsKey(file)){
+            return writtenFiles.get(file);
+        }
+        if(newFiles.containsKey(file)){
+            return newFiles.get(file);
+        }
+        String filename = indexer.getFileMeta().get(file).getFileName();
+        String fileInstance = createFileIndividual(filename,getAttributes(file));
+        newFiles.put(file, fileInstance);
+        return fileInstance;
+    }
+    
+    private void addLocation(String file,String fileInstance){
+        String filepath = indexer.getFileMeta().get(file).getFileParentPath();
+        String locationInstance;
+        if(locations.containsKey(filepath)){
+            locationInstance = locations.get(filepath);
+        }
+        else{
+            locationInstance = createLocationIndividual(filepath);
+        }
+        update.add(fileInstance,hasLocation,locationInstance);
+        update.add(locationInstance,relatedFile,fileInstance);
+    }
+    
+    private void addOldAuthorFileRelations(String concept,String fileInstance){
         if(!organisations.isEmpty() && organisations.containsKey(concept)){
-            Individual orgIndividual = model.getIndividual(ns+organisations.get(concept));
-            model.add(fileIndividual,relatedThing,orgIndividual);
-            model.add(orgIndividual,relatedFile,fileIndividual);
+            String orgInstance = organisations.get(concept);
+            update.add(fileInstance,relatedThing,orgInstance);
+            update.add(orgInstance,relatedFile,fileInstance);
             
         }
         if(!things.isEmpty() && things.containsKey(concept)){
-            Individual thingIndividual = model.getIndividual(ns+things.get(concept));
-            model.add(fileIndividual,relatedThing,thingIndividual);
-            model.add(thingIndividual,relatedFile,fileIndividual);   
+            String thingInstance = things.get(concept);
+            update.add(fileInstance,relatedThing,thingInstance);
+            update.add(thingInstance,relatedFile,fileInstance);   
         }
     }
     
@@ -404,209 +421,372 @@ public class Ontology {
     private void addOrganisationFiles() throws IOException, ParseException{
         for(Map.Entry pair:orgMatches.entrySet()){
                 String organisation = (String)pair.getKey();
-                Individual orgIndividual;
+                String orgInstance;
                 if(organisations.containsKey(organisation)){
-                    orgIndividual = model.getIndividual(ns+persons.get(organisation));
+                    orgInstance = organisations.get(organisation);
                 }
                 else{
-                    orgIndividual = createOrganisationIndividual(organisation);
+                    orgInstance = createOrganisationIndividual(organisation);
                     //connect new author individual with old file individuals
-                    addOldThingRelations(organisation,orgIndividual);
+                    addOldThingRelations(organisation,orgInstance);
                 }
                 ArrayList<String> orgfiles = (ArrayList<String>)pair.getValue();
                 for(String file:orgfiles){
-                    Individual fileIndividual;
-                    if(writtenFiles.containsKey(file)){
-                       fileIndividual = model.getIndividual(ns+writtenFiles.get(file));
-                    }
-                    else if(newFiles.containsKey(file)){
-                        fileIndividual = model.getIndividual(ns+newFiles.get(file));
-                    }
-                    else{
-                        String filename = indexer.getFileMeta().get(file).getFileName();
-                        fileIndividual = createFileIndividual(filename,new FileAttributes(new File(file)));
-                        newFiles.put(file, fileIndividual.getLocalName());
-                    }
-                    String filepath = indexer.getFileMeta().get(file).getFileParentPath();
-                    Individual locationIndividual;
-                    if(locations.containsKey(filepath)){
-                        locationIndividual = model.getIndividual(ns+locations.get(filepath));
-                    }
-                    else{
-                        locationIndividual = createLocationIndividual(filepath);
-                    }
-                    model.add(fileIndividual,hasLocation,locationIndividual);
-                    model.add(locationIndividual,relatedFile,fileIndividual);
+                    String fileInstance = fileInstance(file);
+                    addLocation(file,fileInstance);
                     
-                    model.add(fileIndividual,relatedThing,orgIndividual);
-                    model.add(orgIndividual,relatedFile,fileIndividual);
-                    newFilesWithOrgs.add(fileIndividual.getLocalName());
-                    addOldOrgFileRelations(organisation,fileIndividual);
+                    update.add(fileInstance,relatedThing,orgInstance);
+                    update.add(orgInstance,relatedFile,fileInstance);
+                    newFilesWithOrgs.add(fileInstance);
+                    addOldOrgFileRelations(organisation,fileInstance);
                     
                 }
             }
     }
     
-    private void addOldOrgFileRelations(String concept,Individual fileIndividual){
+    private void addOldOrgFileRelations(String concept,String fileInstance){
         if(!persons.isEmpty() && persons.containsKey(concept)){
-            Individual personIndividual = model.getIndividual(ns+persons.get(concept));
-            model.add(fileIndividual,relatedThing,personIndividual);
-            model.add(personIndividual,relatedFile,fileIndividual);      
+            String personInstance = persons.get(concept);
+            update.add(fileInstance,relatedThing,personInstance);
+            update.add(personInstance,relatedFile,fileInstance);      
         }
         if(!things.isEmpty() && things.containsKey(concept)){
-             Individual thingIndividual = model.getIndividual(ns+things.get(concept));
-             model.add(fileIndividual,relatedThing,thingIndividual);
-             model.add(thingIndividual,relatedFile,fileIndividual);   
+             String thingInstance = things.get(concept);
+             update.add(fileInstance,relatedThing,thingInstance);
+             update.add(thingInstance,relatedFile,fileInstance);   
         }
     }
     
     private void addFiles() throws IOException{
         for(Map.Entry pair:matches.entrySet()){
             String concept = (String)pair.getKey();
-            ArrayList<Individual> relatedThings = new ArrayList<>();
+            ArrayList<String> relatedThings = new ArrayList<>();
             if(persons.containsKey(concept)){
-                relatedThings.add(model.getIndividual(ns+persons.get(concept)));        
+                relatedThings.add(persons.get(concept));        
             }
             if(organisations.containsKey(concept)){
-                relatedThings.add(model.getIndividual(ns+organisations.get(concept)));
+                relatedThings.add(organisations.get(concept));
             }
             if(things.containsKey(concept)){
-                relatedThings.add(model.getIndividual(ns+things.get(concept)));
+                relatedThings.add(things.get(concept));
             }
             if(relatedThings.isEmpty()){
-                Individual thingIndividual = createThingIndividual(concept);
-                relatedThings.add(thingIndividual);
-                addOldThingRelations(concept,thingIndividual);
+                String thingInstance = createThingIndividual(concept);
+                relatedThings.add(thingInstance);
+                addOldThingRelations(concept,thingInstance);
             }
             ArrayList<String> files = (ArrayList<String>)pair.getValue();
             for(String file:files){
-                Individual fileIndividual;
-                    if(writtenFiles.containsKey(file)){
-                       fileIndividual = model.getIndividual(ns+writtenFiles.get(file));
-                    }
-                    else if(newFiles.containsKey(file)){
-                        fileIndividual = model.getIndividual(ns+newFiles.get(file));
-                    }
-                    else{
-                        String filename = indexer.getFileMeta().get(file).getFileName();
-                        fileIndividual = createFileIndividual(filename,new FileAttributes(new File(file)));
-                        newFiles.put(file, fileIndividual.getLocalName());
-                    }
-                    String filepath = indexer.getFileMeta().get(file).getFileParentPath();
-                    Individual locationIndividual;
-                    if(locations.containsKey(filepath)){
-                        locationIndividual = model.getIndividual(ns+locations.get(filepath));
-                    }
-                    else{
-                        locationIndividual = createLocationIndividual(filepath);
-                    }
-                    model.add(fileIndividual,hasLocation,locationIndividual);
-                    model.add(locationIndividual,relatedFile,fileIndividual);
+                    String fileInstance = fileInstance(file);
+                    addLocation(file,fileInstance);
                     
-                    for(Individual thing:relatedThings){
-                        model.add(fileIndividual,relatedThing,thing);
-                        model.add(thing,relatedFile,fileIndividual);
+                    for(String thing:relatedThings){
+                        update.add(fileInstance,relatedThing,thing);
+                        update.add(thing,relatedFile,fileInstance);
                     }
             }
                     
         }
     }
     
-    private void addOldThingRelations(String concept,Individual thingIndividual){
-        if(!files.isEmpty()){
-            ArrayList<String> list = files.get(concept);
+    private void addOldThingRelations(String concept,String thingInstance){
+        ArrayList<String> list = files.get(concept);
+        if(list != null){
             for(String file:list){
-                Individual fileIndividual = model.getIndividual(ns+file);
-                model.add(fileIndividual,relatedThing,thingIndividual);
-                model.add(thingIndividual,relatedFile,fileIndividual);
+                update.add(file,relatedThing,thingInstance);
+                update.add(thingInstance,relatedFile,file);
             }
         }      
     }
     
-    private Individual createNameIndividual(String name){
-        String instance="Name_"+currentNameInstance;
-        currentNameInstance++;
-        Individual nameIndividual = model.createIndividual(ns+instance,nameClass);
-        nameIndividual.addLiteral(this.name,name);
-        return nameIndividual;
+    private String createNameIndividual(String name){
+        String instance = update.create("Name",nameClass);
+        update.addLiteral(instance,this.name,name);
+        return instance;
+    }
+    
+    private String createPersonNameIndividual(String personName){
+        String instance = update.create("Person_Name",personNameClass);
+        update.addLiteral(instance,name,personName);
+        return instance;
+    }
+    
+    private void printExtractionReport(FileClassifier classifier){
+        StringBuilder modes = new StringBuilder();
+        for(ExtractionMode mode:ExtractionMode.values()){
+            modes.append(modes.length() == 0 ? "" : ", ").append(String.format("%s %d files (%.1f MB)",
+                    mode.getLabel(),classifier.getFiles(mode),classifier.getBytes(mode)/(1024.0*1024.0)));
+        }
+        StringBuilder kinds = new StringBuilder();
+        for(FileKind kind:FileKind.values()){
+            if(classifier.getFiles(kind) > 0){
+                kinds.append(kinds.length() == 0 ? "" : ", ").append(String.format("%s %d (%.1f MB)",
+                        kind.getLabel(),classifier.getFiles(kind),classifier.getBytes(kind)/(1024.0*1024.0)));
+            }
+        }
+        System.out.println("Extraction: "+modes+".");
+        if(kinds.length() > 0){
+            System.out.println("File kinds: "+kinds+".");
+        }
+    }
+    
+    private void printIndexReport(DirectoryIndexer indexer){
+        double seconds = Math.max(indexer.getIndexingMillis(), 1)/1000.0;
+        double megabytes = indexer.getIndexedBytes()/(1024.0*1024.0);
+        System.out.println(String.format("Indexed %d files (%.1f MB) in %d ms with the %s schema (%.0f files/s, %.1f MB/s); the index takes %.1f MB.",
+                indexer.getIndexedFiles(),megabytes,indexer.getIndexingMillis(),indexer.getSchema().getLabel(),
+                indexer.getIndexedFiles()/seconds,megabytes/seconds,indexer.getIndexSize()/(1024.0*1024.0)));
     }
     
-    private Individual createPersonNameIndividual(String personName){
-        String instance="Person_Name_"+currentPersonNameInstance;
-        currentPersonNameInstance++;    
-        Individual personNameIndividual = model.createIndividual(ns+instance,personNameClass);
-        personNameIndividual.addLiteral(name,personName);
-        return personNameIndividual;
+    private FileAttributes getAttributes(String file) throws IOException{
+        FileAttributes attributes = indexer.getFileMeta().get(file).getAttributes();
+        return attributes != null ? attributes : new FileAttributes(new File(file));
     }
     
-    private Individual createFileIndividual(String filename,FileAttributes attributes){
-        String instance="File_"+currentFileInstance;
-        currentFileInstance++;
+    private String createFileIndividual(String filename,FileAttributes attributes){
+        String instance = update.create("File",fileClass);
         
-        Individual nameIndividual = createNameIndividual(filename);
+        String nameInstance = createNameIndividual(filename);
         
-        Individual fileIndividual = model.createIndividual(ns+instance,fileClass);
-        fileIndividual.addLiteral(fileType,attributes.getType());
-        fileIndividual.addLiteral(creationTime,attributes.getCreationTime());
-        fileIndividual.addLiteral(lastModificationTime,attributes.getModificationTime());
-        fileIndividual.addLiteral(lastAccessTime,attributes.getAccessTime());
-        fileIndividual.addLiteral(size,attributes.getSize());
+        update.addLiteral(instance,fileType,attributes.getType());
+        update.addLiteral(instance,creationTime,attributes.getCreationTime());
+        update.addLiteral(instance,lastModificationTime,attributes.getModificationTime());
+        update.addLiteral(instance,lastAccessTime,attributes.getAccessTime());
+        update.addLiteral(instance,size,attributes.getSize());
         
-        model.add(fileIndividual,hasName,nameIndividual);
+        update.add(instance,hasName,nameInstance);
         
-        return fileIndividual;
+        return instance;
     }
     
-    private Individual createLocationIndividual(String path){
+    private String createLocationIndividual(String path){
         
-        String instance = "Location_"+currentLocationInstance;
+        String instance = update.create("Location",locationClass);
         locations.put(path,instance);
-        Individual locationIndividual = model.createIndividual(ns+instance,locationClass);     
-        locationIndividual.addLiteral(this.path, path);    
-        currentLocationInstance++;
-        return locationIndividual;
+        update.addLiteral(instance,this.path, path);    
+        return instance;
     }
     
-    private Individual createPersonIndividual(String personName){
-        String instance = "Person_"+currentPersonInstance;
+    private String createPersonIndividual(String personName){
+        String instance = update.create("Person",personClass);
         persons.put(personName,instance);
-        Individual personIndividual = model.createIndividual(ns+instance,personClass);
-        Individual personNameIndividual = createPersonNameIndividual(personName);
-        model.add(personIndividual,this.personName,personNameIndividual);
-        currentPersonInstance++;
-        return personIndividual;
+        String personNameInstance = createPersonNameIndividual(personName);
+        update.add(instance,this.personName,personNameInstance);
+        return instance;
     }
     
-    private Individual createOrganisationIndividual(String companyName){
-        String instance = "Organisation_"+currentOrganisationInstance;
+    private String createOrganisationIndividual(String companyName){
+        String instance = update.create("Organisation",organisationClass);
         organisations.put(companyName,instance);
-        Individual orgIndividual = model.createIndividual(ns+instance,organisationClass);
-        Individual nameIndividual = createNameIndividual(companyName);
-        model.add(orgIndividual,hasName,nameIndividual);
-        currentOrganisationInstance++;
-        return orgIndividual;
+        String nameInstance = createNameIndividual(companyName);
+        update.add(instance,hasName,nameInstance);
+        return instance;
     }
     
-    private Individual createThingIndividual(String thingName){
-        String instance = "Thing_"+currentThingInstance;
+    private String createThingIndividual(String thingName){
+        String instance = update.create("Thing",thingClass);
         things.put(thingName,instance);
-        Individual thingIndividual = model.createIndividual(ns+instance,thingClass);
-        Individual nameIndividual = createNameIndividual(thingName);
-        model.add(thingIndividual,hasName,nameIndividual);
-        currentThingInstance++;
-        return thingIndividual;
+        String nameInstance = createNameIndividual(thingName);
+        update.add(instance,hasName,nameInstance);
+        return instance;
     }
     
+    /**
+     * Writes the ontology back to the output file in RDF/XML, or to a Turtle
+     * file next to it, streaming the statements of the model. In delta mode 
+     * only the statements added by this run are written, as N-Triples, and 
+     * the ontology is left as it was. The delta file keeps the statements of
+     * every run since it was last merged into the ontology and deleted; it
+     * is read together with the ontology, so later runs go on numbering the
+     * individuals where it left off. An ontology kept in a store is already
+     * up to date, and is only written out in Turtle or as a delta.
+     */
     public void write()throws FileNotFoundException, IOException{
-        FileWriter out = null;
-        try {
-            out = new FileWriter(output);
-            model.writeAll(out, "RDF/XML-ABBREV", null);
-        } 
-        finally {
-            if (out != null) {
-                  try {out.close();} catch (IOException ignore) {}
+        if(store != null){
+            System.out.println(String.format("Added %d statements to the ontology store in %s.", added.size(), config.getStoreDirectory()));
+        }
+        if(config.isDelta()){
+            Path path = deltaPath();
+            try (TripleWriter out = new TripleWriter(path,null,true)) {
+                for(Triple triple:added){
+                    out.write(triple);
+                }
+            }
+            System.out.println(String.format("Added %d new statements to %s.", added.size(), path));
+        }
+        else if(config.getFormat().equals(MatcherConfig.TURTLE_FORMAT)){
+            Path path = Paths.get(output.toLowerCase().endsWith(".ttl") ? output : basePath()+".ttl");
+            ExtendedIterator<Triple> triples = model.getGraph().find(Node.ANY, Node.ANY, Node.ANY);
+            try (TripleWriter out = new TripleWriter(path,model.getNsPrefixMap())) {
+                while(triples.hasNext()){
+                    out.write(triples.next());
+                }
             }
+            finally{
+                triples.close();
+            }
+            System.out.println(String.format("Wrote the ontology to %s.", path));
+        }
+        else if(store == null){
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(output)))) {
+                model.writeAll(out, "RDF/XML-ABBREV", null);
+            }
+        }
+    }
+    
+    /**
+     * Commits the statements added to the ontology store, if there is one.
+     */
+    public void close(){
+        if(store != null){
+            store.close();
+        }
+    }
+    
+    private void loadModel(){
+        if(store == null){
+            model = ModelFactory.createOntologyModel( OntModelSpec.OWL_MEM); 
+            try{
+                readOntology();
+            }
+            catch (IOException ex) {
+                System.out.println(String.format("Error: %s", ex.getMessage()));
+            }
+        }
+        else{
+            model = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM, ModelFactory.createModelForGraph(store));
+            if(store.isImported()){
+                System.out.println(String.format("Opened the ontology store in %s (%d statements).", config.getStoreDirectory(), store.size()));
+            }
+            else{
+                importOntology();
+            }
+        }
+    }
+    
+    /**
+     * Reads the ontology, and the delta file in delta mode, into the model.
+     */
+    private void readOntology() throws IOException{
+        try (InputStream in = FileManager.get().open(output)) {
+            if (in == null)
+            {
+                throw new IllegalArgumentException( "File"+output+" not found");
+            }
+            model.read(in, "", FileUtils.guessLang(output));
+        }
+        Path delta = deltaPath();
+        if(config.isDelta() && Files.isRegularFile(delta)){
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(delta))) {
+                model.read(in, "", FileUtils.langNTriple);
+            }
+        }
+    }
+    
+    /**
+     * Reads the ontology into a store that has not had one imported in full
+     * yet, and commits it there, so that later runs open the store instead.
+     * An import that fails is rolled back rather than left half done.
+     */
+    private void importOntology(){
+        try{
+            readOntology();
+            store.commitImport();
         }
+        catch(IOException | RuntimeException ex){
+            try{
+                store.rollback();
+            }
+            catch(IOException closing){
+                ex.addSuppressed(closing);
+            }
+            throw new IllegalArgumentException("Cannot import "+output+" into the ontology store in "+config.getStoreDirectory()+": "+ex.getMessage(), ex);
+        }
+    }
+    
+    /**
+     * Loads the lookup tables saved by an earlier run from the same ontology
+     * file, and delta file in delta mode, if a snapshot file is configured.
+     * @return the snapshot, or null if the ontology has to be read
+     */
+    private OntologySnapshot loadSnapshot(){
+        if(config.getSnapshotFile() == null){
+            return null;
+        }
+        try{
+            ontologyHash = snapshotKey();
+            OntologySnapshot loaded = OntologySnapshot.load(Paths.get(config.getSnapshotFile()), ontologyHash);
+            if(loaded != null){
+                System.out.println(String.format("The ontology has not changed; loaded its lookup tables from %s.", config.getSnapshotFile()));
+            }
+            return loaded;
+        }
+        catch(IOException ex){
+            System.out.println(String.format("Error: %s", ex.getMessage()));
+            return null;
+        }
+    }
+    
+    private void saveSnapshot(OntologySnapshot tables){
+        try{
+            tables.save(Paths.get(config.getSnapshotFile()));
+        }
+        catch(IOException ex){
+            System.out.println(String.format("Error: %s", ex.getMessage()));
+        }
+    }
+    
+    /**
+     * Saves the tables of the ontology as written, once the files the next
+     * run reads have changed.
+     */
+    private void updateSnapshot(){
+        if(ontologyHash == null){
+            return;
+        }
+        try{
+            String hash = snapshotKey();
+            if(!hash.equals(ontologyHash)){
+                ontologyHash = hash;
+                saveSnapshot(readTables(hash));
+            }
+        }
+        catch(IOException ex){
+            System.out.println(String.format("Error: %s", ex.getMessage()));
+        }
+    }
+    
+    /**
+     * Hash of the ontology file and, in delta mode, of the delta file read
+     * with it, which identifies the tables they give.
+     */
+    private String snapshotKey() throws IOException{
+        String key = Utils.contentHash(new File(output));
+        if(config.isDelta()){
+            Path delta = deltaPath();
+            key += "+"+(Files.isRegularFile(delta) ? Utils.contentHash(delta.toFile()) : "");
+        }
+        return key;
+    }
+    
+    private static TripleStore openStore(String directory){
+        if(directory == null){
+            return null;
+        }
+        try{
+            return TripleStore.open(Paths.get(directory));
+        }
+        catch(IOException ex){
+            throw new IllegalArgumentException("Cannot open the ontology store in "+directory+": "+ex.getMessage(), ex);
+        }
+    }
+    
+    private Path deltaPath(){
+        return Paths.get(basePath()+".delta.nt");
+    }
+    
+    private String basePath(){
+        int dot = output.lastIndexOf('.');
+        return dot > output.lastIndexOf(File.separatorChar) ? output.substring(0, dot) : output;
     }
 }
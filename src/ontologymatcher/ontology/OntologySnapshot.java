@@ -0,0 +1,172 @@
+package ontologymatcher.ontology;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The lookup tables {@link Ontology#readTriples()} builds from an ontology,
+ * and the next free id of every instance prefix, saved in a binary file
+ * together with the hash of the ontology, and of the delta file in delta
+ * mode, they were built from. As long as these files do not change, the
+ * next run loads the tables from here instead of parsing the RDF. A run that
+ * changes them saves the tables again once it has written them.
+ *
+ * The file holds a header (magic number, version, ontology hash, namespace)
+ * followed by every table as a count and its entries; strings are written
+ * as their UTF-8 length and bytes.
+ */
+final class OntologySnapshot {
+
+    private static final int MAGIC = 0x4f4d534e;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64*1024;
+
+    private final String hash;
+    private final String ns;
+    final Set<String> concepts;
+    final Map<String,ArrayList<String>> files;
+    final Map<String,String> writtenFiles;
+    final Map<String,String> locations;
+    final Map<String,String> things;
+    final Map<String,String> persons;
+    final Map<String,String> organisations;
+    final Map<String,Integer> counters;
+
+    OntologySnapshot(String hash,String ns){
+        this.hash = hash;
+        this.ns = ns;
+        concepts = new HashSet<>();
+        files = new HashMap<>();
+        writtenFiles = new HashMap<>();
+        locations = new HashMap<>();
+        things = new HashMap<>();
+        persons = new HashMap<>();
+        organisations = new HashMap<>();
+        counters = new HashMap<>();
+    }
+
+    String getNs(){
+        return ns;
+    }
+
+    /**
+     * @return the snapshot in the given file, or null if there is none or it
+     * was taken from an ontology with a different hash
+     */
+    static OntologySnapshot load(Path path,String hash) throws IOException{
+        if(!Files.isRegularFile(path)){
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path),BUFFER_SIZE))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION || !readString(in).equals(hash)){
+                return null;
+            }
+            String ns = in.readBoolean() ? readString(in) : null;
+            OntologySnapshot snapshot = new OntologySnapshot(hash,ns);
+            for(int i=in.readInt();i>0;i--){
+                snapshot.concepts.add(readString(in));
+            }
+            for(int i=in.readInt();i>0;i--){
+                String concept = readString(in);
+                ArrayList<String> list = new ArrayList<>();
+                for(int j=in.readInt();j>0;j--){
+                    list.add(readString(in));
+                }
+                snapshot.files.put(concept, list);
+            }
+            readMap(in,snapshot.writtenFiles);
+            readMap(in,snapshot.locations);
+            readMap(in,snapshot.things);
+            readMap(in,snapshot.persons);
+            readMap(in,snapshot.organisations);
+            for(int i=in.readInt();i>0;i--){
+                String prefix = readString(in);
+                snapshot.counters.put(prefix, in.readInt());
+            }
+            return snapshot;
+        }
+        catch(EOFException ex){
+            return null;
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file first, so that an interrupted
+     * run never leaves a truncated snapshot behind.
+     */
+    void save(Path path) throws IOException{
+        Path temp = path.resolveSibling(path.getFileName()+".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp),BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out,hash);
+            out.writeBoolean(ns != null);
+            if(ns != null){
+                writeString(out,ns);
+            }
+            out.writeInt(concepts.size());
+            for(String concept:concepts){
+                writeString(out,concept);
+            }
+            out.writeInt(files.size());
+            for(Map.Entry<String,ArrayList<String>> entry:files.entrySet()){
+                writeString(out,entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for(String instance:entry.getValue()){
+                    writeString(out,instance);
+                }
+            }
+            writeMap(out,writtenFiles);
+            writeMap(out,locations);
+            writeMap(out,things);
+            writeMap(out,persons);
+            writeMap(out,organisations);
+            out.writeInt(counters.size());
+            for(Map.Entry<String,Integer> entry:counters.entrySet()){
+                writeString(out,entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void readMap(DataInputStream in,Map<String,String> map) throws IOException{
+        for(int i=in.readInt();i>0;i--){
+            String key = readString(in);
+            map.put(key, readString(in));
+        }
+    }
+
+    private static void writeMap(DataOutputStream out,Map<String,String> map) throws IOException{
+        out.writeInt(map.size());
+        for(Map.Entry<String,String> entry:map.entrySet()){
+            writeString(out,entry.getKey());
+            writeString(out,entry.getValue());
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException{
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes,StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out,String value) throws IOException{
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,134 @@
+package ontologymatcher.ontology;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.GraphUtil;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.ontology.OntModel;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.RDF;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The statements a run adds to the ontology, collected and applied in one go.
+ *
+ * The next free id of every instance prefix ("File", "Person_Name", ...) is
+ * one past the highest id in use, as counted by {@link #count} during the
+ * scan of the model in {@link TripleIndex}, so new instances never reuse the
+ * name of an existing one. Resources are
+ * created once per local name without looking them up in the model, and
+ * statements are kept in a set, so adding the same statement again is free.
+ * {@link #apply()} hands the statements the model does not have yet to its
+ * base graph in a single bulk add.
+ */
+final class OntologyUpdate {
+
+    private static final Pattern INSTANCE = Pattern.compile("(.+)_(\\d+)");
+
+    private final OntModel model;
+    private final String ns;
+    private final Map<String,Integer> counters;
+    private final Map<String,Resource> resources;
+    private final Set<Triple> triples;
+
+    /**
+     * @param counters next free id of every instance prefix, which is
+     * updated as instances are created
+     */
+    OntologyUpdate(OntModel model,String ns,Map<String,Integer> counters){
+        this.model = model;
+        this.ns = ns;
+        this.counters = counters;
+        resources = new HashMap<>();
+        triples = new LinkedHashSet<>();
+    }
+
+    /**
+     * Raises the counter of the node's prefix past its id if the node is an
+     * instance of the namespace.
+     */
+    static void count(Map<String,Integer> counters,String ns,Node node){
+        if(ns == null || !node.isURI() || !node.getURI().startsWith(ns)){
+            return;
+        }
+        Matcher matcher = INSTANCE.matcher(node.getURI().substring(ns.length()));
+        if(matcher.matches()){
+            try{
+                int next = Integer.parseInt(matcher.group(2))+1;
+                Integer current = counters.get(matcher.group(1));
+                if(current == null || current < next){
+                    counters.put(matcher.group(1), next);
+                }
+            }
+            catch(NumberFormatException ex){
+                // not an id this program would have allocated
+            }
+        }
+    }
+
+    /**
+     * Allocates the local name of a new instance of the given prefix and
+     * declares it an instance of the given class.
+     */
+    String create(String prefix,Resource type){
+        Integer current = counters.get(prefix);
+        int id = current == null ? 0 : current;
+        counters.put(prefix, id+1);
+        String instance = prefix+"_"+id;
+        add(instance,RDF.type,type);
+        return instance;
+    }
+
+    Resource resource(String instance){
+        Resource resource = resources.get(instance);
+        if(resource == null){
+            resource = model.createResource(ns+instance);
+            resources.put(instance, resource);
+        }
+        return resource;
+    }
+
+    void add(String subject,Property predicate,String object){
+        add(subject,predicate,resource(object));
+    }
+
+    void add(String subject,Property predicate,RDFNode object){
+        triples.add(Triple.create(resource(subject).asNode(), predicate.asNode(), object.asNode()));
+    }
+
+    /**
+     * Adds a typed literal, as {@link Resource#addLiteral(Property, Object)}
+     * does.
+     */
+    void addLiteral(String subject,Property predicate,Object value){
+        add(subject,predicate,model.createTypedLiteral(value));
+    }
+
+    /**
+     * Adds the collected statements to the model. Statements the model
+     * already has, such as the links of a file matched again by a later
+     * run, are left out.
+     * @return the distinct statements added, in the order they were made
+     */
+    List<Triple> apply(){
+        Graph graph = model.getBaseModel().getGraph();
+        List<Triple> added = new ArrayList<>(triples.size());
+        for(Triple triple:triples){
+            if(!graph.contains(triple)){
+                added.add(triple);
+            }
+        }
+        GraphUtil.add(graph, added);
+        triples.clear();
+        return added;
+    }
+}
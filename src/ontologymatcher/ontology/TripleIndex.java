@@ -0,0 +1,142 @@
+
+package ontologymatcher.ontology;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lookup tables built from a single scan over the statements of a model.
+ * Statements are matched on local names, the same way readTriples used to
+ * match them, and every table keeps the model's iteration order so that
+ * "last statement wins" lookups give the same results as the nested scans.
+ * The same scan counts the instance ids in use for {@link OntologyUpdate}.
+ */
+class TripleIndex {
+
+    private final List<String[]> names;
+    private final List<String[]> paths;
+    private final Map<String,String> personNames;
+    private final Map<String,List<String>> hasNames;
+    private final Map<String,RDFNode> fileTypes;
+    private final Map<String,List<String>> hasLocations;
+    private final Map<String,RDFNode> pathValues;
+    private final Map<String,Integer> counters;
+
+    TripleIndex(Model model,String ns){
+
+        names = new ArrayList<>();
+        paths = new ArrayList<>();
+        personNames = new HashMap<>();
+        hasNames = new HashMap<>();
+        fileTypes = new HashMap<>();
+        hasLocations = new HashMap<>();
+        pathValues = new HashMap<>();
+        counters = new HashMap<>();
+
+        String rdfs = model.getNsPrefixURI("rdfs");
+        StmtIterator iter = model.listStatements();
+        while (iter.hasNext()){
+            Statement stmt = iter.nextStatement();
+            Resource subject = stmt.getSubject();
+            Property predicate = stmt.getPredicate();
+            RDFNode object = stmt.getObject();
+            OntologyUpdate.count(counters, ns, subject.asNode());
+            OntologyUpdate.count(counters, ns, object.asNode());
+            String subjectName = subject.getLocalName();
+            String predicateName = predicate.getLocalName();
+
+            if(object.isLiteral() && !predicate.getNameSpace().equals(rdfs)){
+                if(predicateName.equals("name")){
+                    names.add(new String[]{subjectName, object.asLiteral().getValue().toString()});
+                }
+                else if(predicateName.equals("path")){
+                    paths.add(new String[]{object.asLiteral().getValue().toString(), subjectName});
+                }
+            }
+            if(object.isResource()){
+                String objectName = object.asResource().getLocalName();
+                if(predicateName.equals("personName")){
+                    personNames.put(objectName, subjectName);
+                }
+                else if(predicateName.equals("hasName")){
+                    append(hasNames, objectName, subjectName);
+                }
+                else if(predicateName.equals("hasLocation")){
+                    append(hasLocations, subjectName, objectName);
+                }
+            }
+            if(predicateName.equals("fileType")){
+                fileTypes.put(subjectName, object);
+            }
+            else if(predicateName.equals("path")){
+                pathValues.put(subjectName, object);
+            }
+        }
+    }
+
+    private static void append(Map<String,List<String>> table, String key, String value){
+        List<String> list = table.get(key);
+        if(list == null){
+            list = new ArrayList<>();
+            table.put(key, list);
+        }
+        list.add(value);
+    }
+
+    /**
+     * (subject, concept) pairs of every non-rdfs literal "name" statement.
+     */
+    List<String[]> getNames(){
+        return names;
+    }
+
+    /**
+     * (path, subject) pairs of every non-rdfs literal "path" statement.
+     */
+    List<String[]> getPaths(){
+        return paths;
+    }
+
+    /**
+     * Next free id of every instance prefix.
+     */
+    Map<String,Integer> getCounters(){
+        return counters;
+    }
+
+    String getPersonFor(String nameInstance){
+        return personNames.get(nameInstance);
+    }
+
+    List<String> getNamedBy(String nameInstance){
+        List<String> list = hasNames.get(nameInstance);
+        return list == null ? new ArrayList<String>() : list;
+    }
+
+    String getFileType(String fileInstance){
+        RDFNode type = fileTypes.get(fileInstance);
+        return type == null ? "" : type.asLiteral().getValue().toString();
+    }
+
+    String getLocationPath(String fileInstance){
+        String path = "";
+        List<String> locationInstances = hasLocations.get(fileInstance);
+        if(locationInstances != null){
+            for(String location:locationInstances){
+                RDFNode value = pathValues.get(location);
+                if(value != null){
+                    path = value.asLiteral().getValue().toString();
+                }
+            }
+        }
+        return path;
+    }
+}
@@ -0,0 +1,393 @@
+package ontologymatcher.ontology;
+
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.rdf.model.AnonId;
+import com.hp.hpl.jena.shared.PrefixMapping;
+import com.hp.hpl.jena.shared.WrappedIOException;
+import com.hp.hpl.jena.shared.impl.PrefixMappingImpl;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.NiceIterator;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import ontologymatcher.utils.Utils;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * A graph kept on disk in a Lucene index, one document per triple, so that
+ * an ontology larger than the heap can be matched. The subject, predicate
+ * and object of every triple are indexed as terms of their own, and any
+ * pattern is answered by intersecting their postings, which stand in for
+ * the subject, predicate and object orderings of a triple store. Results are
+ * read lazily, segment by segment, so neither the graph nor the result of a
+ * find is ever held in memory.
+ *
+ * Triples added are visible to the next find, and are committed together
+ * with the prefixes of the graph when the store is closed; a run that does
+ * not close the store leaves it as it was. The import of an ontology is
+ * committed on its own, with a marker telling later runs that it is
+ * complete, and an import that fails is rolled back.
+ */
+final class TripleStore extends GraphBase {
+
+    private static final String SUBJECT = "s";
+    private static final String PREDICATE = "p";
+    private static final String OBJECT = "o";
+    private static final String TRIPLE = "t";
+    private static final String PREFIX = "prefix:";
+    private static final String IMPORTED = "imported";
+    private static final int MAX_TERM_LENGTH = 8000;
+
+    private final Directory directory;
+    private final IndexWriter writer;
+    private final Map<String,String> commitData;
+    private DirectoryReader reader;
+    private boolean changed;
+    private boolean imported;
+
+    private TripleStore(Directory directory,IndexWriter writer,Map<String,String> commitData) throws IOException{
+        this.directory = directory;
+        this.writer = writer;
+        this.commitData = commitData;
+        imported = commitData.containsKey(IMPORTED);
+        reader = DirectoryReader.open(writer, true);
+    }
+
+    /**
+     * Opens the store in the given directory, creating it if there is none.
+     */
+    static TripleStore open(Path path) throws IOException{
+        Directory directory = FSDirectory.open(path);
+        Map<String,String> commitData = new HashMap<>();
+        if(DirectoryReader.indexExists(directory)){
+            commitData.putAll(SegmentInfos.readLatestCommit(directory).getUserData());
+        }
+        IndexWriterConfig iconfig = new IndexWriterConfig(new KeywordAnalyzer());
+        iconfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        return new TripleStore(directory,new IndexWriter(directory,iconfig),commitData);
+    }
+
+    @Override
+    protected PrefixMapping createPrefixMapping(){
+        PrefixMapping prefixes = new PrefixMappingImpl();
+        for(Map.Entry<String,String> entry:commitData.entrySet()){
+            if(entry.getKey().startsWith(PREFIX)){
+                prefixes.setNsPrefix(entry.getKey().substring(PREFIX.length()), entry.getValue());
+            }
+        }
+        return prefixes;
+    }
+
+    @Override
+    public void performAdd(Triple triple){
+        String subject = encode(triple.getSubject());
+        String predicate = encode(triple.getPredicate());
+        String object = encode(triple.getObject());
+        Term key = key(subject,predicate,object);
+        Document doc = new Document();
+        doc.add(new StringField(TRIPLE,key.text(),Field.Store.NO));
+        doc.add(new StringField(SUBJECT,term(subject),Field.Store.NO));
+        doc.add(new StringField(PREDICATE,term(predicate),Field.Store.NO));
+        doc.add(new StringField(OBJECT,term(object),Field.Store.NO));
+        doc.add(new StoredField(SUBJECT,subject));
+        doc.add(new StoredField(PREDICATE,predicate));
+        doc.add(new StoredField(OBJECT,object));
+        try{
+            writer.updateDocument(key, doc);
+        }
+        catch(IOException ex){
+            throw new WrappedIOException(ex);
+        }
+        changed = true;
+    }
+
+    @Override
+    public void performDelete(Triple triple){
+        try{
+            writer.deleteDocuments(key(encode(triple.getSubject()),encode(triple.getPredicate()),encode(triple.getObject())));
+        }
+        catch(IOException ex){
+            throw new WrappedIOException(ex);
+        }
+        changed = true;
+    }
+
+    @Override
+    protected ExtendedIterator<Triple> graphBaseFind(TripleMatch match){
+        BooleanQuery query = new BooleanQuery();
+        restrict(query,SUBJECT,match.getMatchSubject());
+        restrict(query,PREDICATE,match.getMatchPredicate());
+        restrict(query,OBJECT,match.getMatchObject());
+        try{
+            return new TripleIterator(refresh(),query.clauses().isEmpty() ? new MatchAllDocsQuery() : query);
+        }
+        catch(IOException ex){
+            throw new WrappedIOException(ex);
+        }
+    }
+
+    private static void restrict(BooleanQuery query,String field,Node node){
+        if(node != null && node.isConcrete()){
+            query.add(new TermQuery(new Term(field,term(encode(node)))), BooleanClause.Occur.MUST);
+        }
+    }
+
+    @Override
+    protected int graphBaseSize(){
+        try{
+            return refresh().numDocs();
+        }
+        catch(IOException ex){
+            throw new WrappedIOException(ex);
+        }
+    }
+
+    /**
+     * Reopens the reader if triples were added or deleted since it was
+     * opened, so that finds see them.
+     */
+    private DirectoryReader refresh() throws IOException{
+        if(changed){
+            DirectoryReader newReader = DirectoryReader.openIfChanged(reader, writer, true);
+            if(newReader != null){
+                reader.decRef();
+                reader = newReader;
+            }
+            changed = false;
+        }
+        return reader;
+    }
+
+    /**
+     * Whether an ontology was imported into the store in full.
+     */
+    boolean isImported(){
+        return imported;
+    }
+
+    /**
+     * Commits the triples read from an ontology, with the marker telling
+     * later runs that the import is complete.
+     */
+    void commitImport() throws IOException{
+        commit(true);
+        imported = true;
+    }
+
+    /**
+     * Discards the triples added since the last commit, such as those of an
+     * import that failed, then closes the index.
+     */
+    void rollback() throws IOException{
+        if(closed){
+            return;
+        }
+        super.close();
+        try{
+            reader.decRef();
+            writer.rollback();
+        }
+        finally{
+            directory.close();
+        }
+    }
+
+    private void commit(boolean complete) throws IOException{
+        Map<String,String> data = new HashMap<>();
+        for(Map.Entry<String,String> prefix:getPrefixMapping().getNsPrefixMap().entrySet()){
+            data.put(PREFIX+prefix.getKey(), prefix.getValue());
+        }
+        if(complete){
+            data.put(IMPORTED, "true");
+        }
+        writer.setCommitData(data);
+        writer.commit();
+    }
+
+    /**
+     * Commits the triples and prefixes, then closes the index.
+     */
+    @Override
+    public void close(){
+        if(closed){
+            return;
+        }
+        super.close();
+        try{
+            try{
+                commit(imported);
+            }
+            finally{
+                reader.decRef();
+                writer.close();
+                directory.close();
+            }
+        }
+        catch(IOException ex){
+            throw new WrappedIOException(ex);
+        }
+    }
+
+    private static Term key(String subject,String predicate,String object){
+        return new Term(TRIPLE,term(subject+"\u0000"+predicate+"\u0000"+object));
+    }
+
+    /**
+     * Index term of an encoded node: the node itself, or a hash of it when it
+     * is too long for a Lucene term.
+     */
+    private static String term(String encoded){
+        if(encoded.length() <= MAX_TERM_LENGTH){
+            return encoded;
+        }
+        try{
+            return "#"+Utils.hash(encoded);
+        }
+        catch(IOException ex){
+            throw new WrappedIOException(ex);
+        }
+    }
+
+    /**
+     * Encodes a node as a string: "&lt;" and the URI, "_" and the label of a
+     * blank node, or '"' followed by the language, the datatype and the
+     * lexical form of a literal, separated by \u0001.
+     */
+    static String encode(Node node){
+        if(node.isURI()){
+            return "<"+node.getURI();
+        }
+        if(node.isBlank()){
+            return "_"+node.getBlankNodeLabel();
+        }
+        String datatype = node.getLiteralDatatypeURI();
+        return "\""+node.getLiteralLanguage()+"\u0001"+(datatype == null ? "" : datatype)+"\u0001"+node.getLiteralLexicalForm();
+    }
+
+    static Node decode(String encoded){
+        switch(encoded.charAt(0)){
+            case '<':
+                return NodeFactory.createURI(encoded.substring(1));
+            case '_':
+                return NodeFactory.createAnon(AnonId.create(encoded.substring(1)));
+            default:
+                int language = encoded.indexOf('\u0001');
+                int datatype = encoded.indexOf('\u0001', language+1);
+                String lang = encoded.substring(1, language);
+                String type = encoded.substring(language+1, datatype);
+                String lexical = encoded.substring(datatype+1);
+                if(type.isEmpty() || !lang.isEmpty()){
+                    return NodeFactory.createLiteral(lexical, lang, false);
+                }
+                return NodeFactory.createLiteral(lexical, TypeMapper.getInstance().getSafeTypeByName(type));
+        }
+    }
+
+    /**
+     * Walks the matching documents of one reader segment by segment. The
+     * reader is kept open until the iterator is exhausted or closed, even if
+     * the store has moved on to a newer one.
+     */
+    private static final class TripleIterator extends NiceIterator<Triple> {
+
+        private final DirectoryReader reader;
+        private final Weight weight;
+        private final Iterator<LeafReaderContext> leaves;
+        private LeafReaderContext leaf;
+        private Scorer scorer;
+        private Triple next;
+        private boolean open;
+
+        private TripleIterator(DirectoryReader reader,Query query) throws IOException{
+            this.reader = reader;
+            reader.incRef();
+            open = true;
+            weight = new IndexSearcher(reader).createNormalizedWeight(query);
+            leaves = reader.leaves().iterator();
+        }
+
+        @Override
+        public boolean hasNext(){
+            if(next != null){
+                return true;
+            }
+            if(!open){
+                return false;
+            }
+            try{
+                while(true){
+                    if(scorer != null){
+                        int doc = scorer.nextDoc();
+                        if(doc != Scorer.NO_MORE_DOCS){
+                            Document document = leaf.reader().document(doc);
+                            next = Triple.create(decode(document.get(SUBJECT)), decode(document.get(PREDICATE)), decode(document.get(OBJECT)));
+                            return true;
+                        }
+                        scorer = null;
+                    }
+                    if(!leaves.hasNext()){
+                        close();
+                        return false;
+                    }
+                    leaf = leaves.next();
+                    scorer = weight.scorer(leaf, leaf.reader().getLiveDocs());
+                }
+            }
+            catch(IOException ex){
+                close();
+                throw new WrappedIOException(ex);
+            }
+        }
+
+        @Override
+        public Triple next(){
+            if(!hasNext()){
+                throw new NoSuchElementException();
+            }
+            Triple triple = next;
+            next = null;
+            return triple;
+        }
+
+        @Override
+        public void close(){
+            if(open){
+                open = false;
+                try{
+                    reader.decRef();
+                }
+                catch(IOException ex){
+                    throw new WrappedIOException(ex);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package ontologymatcher.ontology;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.vocabulary.RDF;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Writes triples one at a time as N-Triples, or as Turtle when prefixes are
+ * given. Nothing is held in memory but the output buffer, so the time and
+ * space taken only depend on the number of triples written, unlike the
+ * RDF/XML-ABBREV writer, which analyses the whole model first.
+ *
+ * In Turtle, consecutive triples of the same subject share it, which is how
+ * an in-memory graph lists its triples, and names are abbreviated with the
+ * prefixes when their local part is a plain name.
+ */
+final class TripleWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64*1024;
+    private static final Pattern NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_-]*");
+    private static final Pattern PREFIX = Pattern.compile("([A-Za-z][A-Za-z0-9_-]*)?");
+
+    private final Writer out;
+    private final Map<String,String> prefixes;
+    private final Map<String,String> blankLabels;
+    private Node subject;
+
+    /**
+     * @param prefixes namespace of every prefix to write Turtle, or null to
+     * write N-Triples
+     */
+    TripleWriter(Path path,Map<String,String> prefixes) throws IOException{
+        this(path,prefixes,false);
+    }
+
+    /**
+     * @param append whether N-Triples are added at the end of the file
+     * rather than replacing it; blank node labels are only unique within
+     * one writer
+     */
+    TripleWriter(Path path,Map<String,String> prefixes,boolean append) throws IOException{
+        out = new BufferedWriter(new OutputStreamWriter(append ? Files.newOutputStream(path,StandardOpenOption.CREATE,StandardOpenOption.APPEND)
+                : Files.newOutputStream(path),StandardCharsets.UTF_8),BUFFER_SIZE);
+        blankLabels = new HashMap<>();
+        if(prefixes == null){
+            this.prefixes = null;
+        }
+        else{
+            this.prefixes = new HashMap<>();
+            for(Map.Entry<String,String> prefix:prefixes.entrySet()){
+                if(PREFIX.matcher(prefix.getKey()).matches()){
+                    this.prefixes.put(prefix.getKey(), prefix.getValue());
+                    out.write("@prefix "+prefix.getKey()+": <"+escapeUri(prefix.getValue())+"> .\n");
+                }
+            }
+            out.write('\n');
+        }
+    }
+
+    void write(Triple triple) throws IOException{
+        if(prefixes == null){
+            out.write(node(triple.getSubject()));
+            out.write(' ');
+            out.write(node(triple.getPredicate()));
+            out.write(' ');
+            out.write(node(triple.getObject()));
+            out.write(" .\n");
+            return;
+        }
+        if(triple.getSubject().equals(subject)){
+            out.write(" ;\n    ");
+        }
+        else{
+            if(subject != null){
+                out.write(" .\n");
+            }
+            subject = triple.getSubject();
+            out.write(node(subject));
+            out.write("\n    ");
+        }
+        out.write(triple.getPredicate().equals(RDF.type.asNode()) ? "a" : node(triple.getPredicate()));
+        out.write(' ');
+        out.write(node(triple.getObject()));
+    }
+
+    @Override
+    public void close() throws IOException{
+        try{
+            if(subject != null){
+                out.write(" .\n");
+            }
+        }
+        finally{
+            out.close();
+        }
+    }
+
+    private String node(Node node){
+        if(node.isURI()){
+            return uri(node.getURI());
+        }
+        if(node.isBlank()){
+            String label = blankLabels.get(node.getBlankNodeLabel());
+            if(label == null){
+                label = "b"+blankLabels.size();
+                blankLabels.put(node.getBlankNodeLabel(), label);
+            }
+            return "_:"+label;
+        }
+        StringBuilder literal = new StringBuilder();
+        literal.append('"').append(escapeString(node.getLiteralLexicalForm())).append('"');
+        String language = node.getLiteralLanguage();
+        if(language != null && !language.isEmpty()){
+            literal.append('@').append(language);
+        }
+        else if(node.getLiteralDatatypeURI() != null){
+            literal.append("^^").append(uri(node.getLiteralDatatypeURI()));
+        }
+        return literal.toString();
+    }
+
+    private String uri(String uri){
+        if(prefixes != null){
+            for(Map.Entry<String,String> prefix:prefixes.entrySet()){
+                String ns = prefix.getValue();
+                if(uri.startsWith(ns) && NAME.matcher(uri.substring(ns.length())).matches()){
+                    return prefix.getKey()+":"+uri.substring(ns.length());
+                }
+            }
+        }
+        return "<"+escapeUri(uri)+">";
+    }
+
+    private static String escapeUri(String uri){
+        StringBuilder escaped = new StringBuilder(uri.length());
+        for(int i=0;i<uri.length();i++){
+            char c = uri.charAt(i);
+            if(c <= ' ' || "<>\"{}|^`\\".indexOf(c) >= 0){
+                escaped.append(String.format("\\u%04X", (int)c));
+            }
+            else{
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Escapes a string for a literal. N-Triples is kept to ASCII, with every
+     * UTF-16 unit escaped on its own, which is what the N-Triples reader of
+     * Jena 2 accepts.
+     */
+    private String escapeString(String value){
+        StringBuilder escaped = new StringBuilder(value.length());
+        for(int i=0;i<value.length();i++){
+            char c = value.charAt(i);
+            if(prefixes == null && c > '~'){
+                escaped.append(String.format("\\u%04X", (int)c));
+                continue;
+            }
+            switch(c){
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '"':
+                    escaped.append("\\\"");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                default:
+                    if(c < ' '){
+                        escaped.append(String.format("\\u%04X", (int)c));
+                    }
+                    else{
+                        escaped.append(c);
+                    }
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,96 @@
+
+package ontologymatcher.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+
+/**
+ * Bounded queue between two stages of a pipeline, each running on its own
+ * thread. The producer blocks while the queue is full, so a fast stage cannot
+ * run arbitrarily far ahead of a slow one. The producer ends the stream with
+ * {@link #finish()} or {@link #fail(Exception)}; a failure reaches the
+ * consumer after the items queued before it. The consumer calls
+ * {@link #cancel()} when it stops early, which makes the producer's next
+ * {@link #put(Object)} fail so that it stops as well.
+ */
+public final class StageQueue<T> {
+
+    private final ArrayDeque<T> items;
+    private final int capacity;
+    private boolean finished;
+    private boolean cancelled;
+    private Exception failure;
+
+    public StageQueue(int capacity){
+        this.capacity = capacity;
+        items = new ArrayDeque<>();
+    }
+
+    public synchronized void put(T item) throws InterruptedIOException{
+        while(items.size() >= capacity && !cancelled){
+            waitForChange();
+        }
+        if(cancelled){
+            throw new InterruptedIOException("Pipeline stage was cancelled");
+        }
+        items.add(item);
+        notifyAll();
+    }
+
+    public synchronized void finish(){
+        finished = true;
+        notifyAll();
+    }
+
+    public synchronized void fail(Exception ex){
+        failure = ex;
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * Next item, or null once the producer has finished.
+     * @throws IOException if the producer failed
+     */
+    public synchronized T take() throws IOException{
+        while(items.isEmpty() && !finished){
+            waitForChange();
+        }
+        if(!items.isEmpty()){
+            T item = items.poll();
+            notifyAll();
+            return item;
+        }
+        if(failure instanceof IOException){
+            throw (IOException)failure;
+        }
+        if(failure != null){
+            throw new IOException(failure);
+        }
+        return null;
+    }
+
+    /**
+     * Whether {@link #take()} would return without blocking.
+     */
+    public synchronized boolean isReady(){
+        return !items.isEmpty() || finished;
+    }
+
+    public synchronized void cancel(){
+        cancelled = true;
+        items.clear();
+        notifyAll();
+    }
+
+    private void waitForChange() throws InterruptedIOException{
+        try{
+            wait();
+        }
+        catch(InterruptedException ex){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a pipeline stage");
+        }
+    }
+}
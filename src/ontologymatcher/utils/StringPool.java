@@ -0,0 +1,26 @@
+
+package ontologymatcher.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread safe pool of canonical string instances, used to keep one copy of
+ * values that repeat across many files, such as folders and authors.
+ */
+public class StringPool {
+    
+    private final ConcurrentHashMap<String,String> strings;
+    
+    public StringPool(){
+        strings = new ConcurrentHashMap<>();
+    }
+    
+    public String intern(String value){
+        if(value == null){
+            return null;
+        }
+        String existing = strings.putIfAbsent(value, value);
+        return existing == null ? value : existing;
+    }
+    
+}
@@ -2,12 +2,31 @@
 package ontologymatcher.utils;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 
 public class Utils {
     
     public static String getFileExtension(File file) {
-        return file.isDirectory() ? "" : (file.getName().substring(file.getName().lastIndexOf(".") + 1));
+        return file.isDirectory() ? "" : getFileExtension(file.getName());
+    }
+    
+    public static String getFileExtension(String fileName) {
+        return fileName.substring(fileName.lastIndexOf(".") + 1);
+    }
+    
+    /**
+     * Name of the file without its extension.
+     */
+    public static String getBaseName(File file) {
+        return file.getName().replaceFirst("[.][^.]+$", "");
     }
     
     public static boolean isDocument(File file){
@@ -16,4 +35,61 @@ public class Utils {
                 || ext.equals("xls") || ext.equals("xlsx") || ext.equals("ppt") || ext.equals("pptx");
      }
     
+    public static String contentHash(File file) throws IOException{
+        MessageDigest digest = sha1();
+        byte[] buffer = new byte[64*1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while((read = in.read(buffer)) > 0){
+                digest.update(buffer, 0, read);
+            }
+        }
+        return hex(digest.digest());
+    }
+    
+    /**
+     * Fast fingerprint of a file: a hash of its size, its modification time,
+     * and its first and last 64 KB, so that large files are not read whole.
+     */
+    public static String fingerprint(File file,long size,long modified) throws IOException{
+        MessageDigest digest = sha1();
+        ByteBuffer header = ByteBuffer.allocate(16);
+        header.putLong(size).putLong(modified);
+        digest.update(header.array());
+        int sample = 64*1024;
+        try (RandomAccessFile in = new RandomAccessFile(file,"r")) {
+            byte[] buffer = new byte[(int)Math.min(size, sample)];
+            in.readFully(buffer);
+            digest.update(buffer);
+            if(size > sample){
+                buffer = new byte[(int)Math.min(size-sample, sample)];
+                in.seek(size-buffer.length);
+                in.readFully(buffer);
+                digest.update(buffer);
+            }
+        }
+        return hex(digest.digest());
+    }
+    
+    public static String hash(String value) throws IOException{
+        return hex(sha1().digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest sha1() throws IOException{
+        try{
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch(NoSuchAlgorithmException ex){
+            throw new IOException(ex);
+        }
+    }
+    
+    private static String hex(byte[] bytes){
+        StringBuilder hex = new StringBuilder();
+        for(byte b:bytes){
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+    
 }